@@ -16,6 +16,7 @@
 
 package global.simpleway.pojodb;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -24,6 +25,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 
@@ -31,18 +33,21 @@ import javax.annotation.concurrent.ThreadSafe;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Interner;
-import com.google.common.collect.Interners;
 
+import global.simpleway.pojodb.format.CborFileFormatStrategy;
 import global.simpleway.pojodb.format.ExternalJacksonFileFormatStrategy;
 import global.simpleway.pojodb.format.IFileFormatStrategy;
 import global.simpleway.pojodb.format.JsonFileFormatStrategy;
+import global.simpleway.pojodb.format.SmileFileFormatStrategy;
 import global.simpleway.pojodb.format.YamlFileFormatStrategy;
+import global.simpleway.pojodb.id.HiLoIdGenerator;
 import global.simpleway.pojodb.id.IIdGenerator;
+import global.simpleway.pojodb.id.IIdGeneratorFactory;
 import global.simpleway.pojodb.id.LongCounterIdGenerator;
 import global.simpleway.pojodb.id.ProvidedIdGenerator;
 import global.simpleway.pojodb.id.UuidIdGenerator;
 import global.simpleway.pojodb.listener.Jsr308ValidatorListener;
+import global.simpleway.pojodb.lock.LockManager;
 import global.simpleway.pojodb.redoLog.RedoLogService;
 import global.simpleway.pojodb.repository.AutocommitTx;
 import global.simpleway.pojodb.repository.CompositeWriteCommand;
@@ -54,8 +59,16 @@ import global.simpleway.pojodb.repository.SaveWriteCommand;
 import global.simpleway.pojodb.repository.Tx;
 import global.simpleway.pojodb.repository.TxManager;
 import global.simpleway.pojodb.storage.CacheDecoratorStorageBackend;
+import global.simpleway.pojodb.storage.CacheOptions;
+import global.simpleway.pojodb.storage.DirectoryLayoutMigration;
+import global.simpleway.pojodb.storage.Durability;
+import global.simpleway.pojodb.storage.FlatDirectoryLayout;
+import global.simpleway.pojodb.storage.HashedDirectoryLayout;
+import global.simpleway.pojodb.storage.IDirectoryLayout;
 import global.simpleway.pojodb.storage.IStorageBackend;
 import global.simpleway.pojodb.storage.ImmediateFlushStorageBackend;
+import global.simpleway.pojodb.storage.LogStructuredStorageBackend;
+import global.simpleway.pojodb.storage.PrefixDirectoryLayout;
 import global.simpleway.pojodb.utils.ExceptionUtils;
 import global.simpleway.pojodb.utils.LogUtil;
 
@@ -66,20 +79,23 @@ import global.simpleway.pojodb.utils.LogUtil;
  * <ul>
  * <li>working with java objects by default not key/values as alternatives, does not have to convert to map of map representation and then to the file</li>
  * <li>using Jackson for (un)marshalling so you could re-use your mapping from REST services or from front-end, but you could easily write another mapping</li>
- * <li>backed by file system - current implementation is using immediate flush of changes, but could use more sofisticated method of persistence (memory mapped files, in memory ...)</li>
+ * <li>backed by file system - using immediate flush of changes to file per object or append only segment files per collection, but could use more sofisticated method of persistence (memory mapped files, in memory ...)</li>
  * <li>mandatory use of redo logs - thus your database will be always consistent. using transactions - just in auto-commit mode in current impl</li>
  * <li>(TODO) storage of binary files with theirs meta-data to be next to its binary data in the same place. Using zero copy for file serving</li>
  * <li>(TODO) could have cheap audit log through its transactions</li>
  * </ul>
  * <p>
  * Similar projects (mainly for inspiration) - MapDB and LevelDB
+ * <p>
+ * Database owns storage backends of its repositories and the redo log, {@link #close()} it when it is not used anymore.
  *
  * @author miroslavhruz
  */
 @ThreadSafe
-public class PojoDB {
+public class PojoDB implements Closeable {
 
-	private final Interner<Path> interner = Interners.newStrongInterner();
+	//item level locks, bounded count of stripes instead of lock per touched item
+	private final LockManager lockManager;
 
 	//base path of the storage
 	private final Path storagePath;
@@ -91,30 +107,45 @@ public class PojoDB {
 	private final IFileFormatStrategy defaultFileFormat;
 	private final IFileFormatStrategy redoLogFileFormat;
 
-	private final IIdGenerator<?, ?> defaultIdGenerator;
+	private final IIdGeneratorFactory idGeneratorFactory;
 	private final IIdGenerator<Object, String> redoLogIdGenerator;
 
+	private final Durability durability;
+
 	private final boolean enableValidation;
 
+	private final boolean persistentIndexes;
+
+	private final boolean sortedIds;
+
+	private final IDirectoryLayout directoryLayout;
+
 	private final Map<Class<?>, Repository<?, ?>> repositories = new HashMap<>();
 
-	private PojoDB(Path storagePath, IFileFormatStrategy defaultFileFormat, IFileFormatStrategy redoLogFileFormat, IIdGenerator<?, ?> defaultIdGenerator,
-			IIdGenerator<Object, String> redoLogIdGenerator, boolean enableValidation) {
+	private PojoDB(Path storagePath, IFileFormatStrategy defaultFileFormat, IFileFormatStrategy redoLogFileFormat, IIdGeneratorFactory idGeneratorFactory,
+			IIdGenerator<Object, String> redoLogIdGenerator, Durability durability, long groupCommitWindowNanos, boolean enableValidation, boolean persistentIndexes,
+			boolean sortedIds, IDirectoryLayout directoryLayout, int lockStripes) {
 
 		this.storagePath = storagePath;
 		this.defaultFileFormat = defaultFileFormat;
 		this.redoLogFileFormat = redoLogFileFormat;
-		this.defaultIdGenerator = defaultIdGenerator;
+		this.idGeneratorFactory = idGeneratorFactory;
 		this.redoLogIdGenerator = redoLogIdGenerator;
+		this.durability = durability;
+		this.lockManager = new LockManager(lockStripes);
 
-		this.redoLogService = new RedoLogService(this, redoLogFileFormat, redoLogIdGenerator);
+		this.redoLogService = new RedoLogService(this, redoLogFileFormat, defaultFileFormat, redoLogIdGenerator, RedoLogService.DEFAULT_MAX_SEGMENT_SIZE, durability,
+				groupCommitWindowNanos);
 		this.txManager = new TxManager();
 
 		this.enableValidation = enableValidation;
+		this.persistentIndexes = persistentIndexes;
+		this.sortedIds = sortedIds;
+		this.directoryLayout = directoryLayout;
 	}
 
-	public Object intern(Path itemLevelLock) {
-		return interner.intern(itemLevelLock);
+	public LockManager getLockManager() {
+		return lockManager;
 	}
 
 	public static PojoDBBuilder builder() {
@@ -133,8 +164,28 @@ public class PojoDB {
 		return txManager;
 	}
 
-	/*package*/ IIdGenerator<?, ?> getDefaultIdGenerator() {
-		return defaultIdGenerator;
+	public Durability getDurability() {
+		return durability;
+	}
+
+	public boolean isPersistentIndexes() {
+		return persistentIndexes;
+	}
+
+	public boolean isSortedIds() {
+		return sortedIds;
+	}
+
+	public IDirectoryLayout getDirectoryLayout() {
+		return directoryLayout;
+	}
+
+	/**
+	 * @return new id generator for the collection, every repository has its own one
+	 */
+	@SuppressWarnings("unchecked")
+	/*package*/ <T, ID> IIdGenerator<T, ID> newIdGenerator(String collectionName) {
+		return (IIdGenerator<T, ID>) idGeneratorFactory.create(this, collectionName);
 	}
 
 	/*package*/ IIdGenerator<Object, String> getRedoLogIdGenerator() {
@@ -150,19 +201,29 @@ public class PojoDB {
 	}
 
 	public <T extends IDomainObject> DomainRepository<T> newCachedDomainRepository(String collectionName, Class<T> typeClass) {
+		return newCachedDomainRepository(collectionName, typeClass, CacheOptions.unbounded());
+	}
+
+	public <T extends IDomainObject> DomainRepository<T> newCachedDomainRepository(String collectionName, Class<T> typeClass, CacheOptions cacheOptions) {
 		final ImmediateFlushStorageBackend<String> backend = new ImmediateFlushStorageBackend<>(this, collectionName, defaultFileFormat, s -> s);
-		final CacheDecoratorStorageBackend<String> cachedBackend = new CacheDecoratorStorageBackend<>(backend, typeClass);
-		@SuppressWarnings("unchecked") final IIdGenerator<T, String> idGenerator = (IIdGenerator<T, String>) defaultIdGenerator;
+		final CacheDecoratorStorageBackend<String> cachedBackend = new CacheDecoratorStorageBackend<>(backend, typeClass, cacheOptions);
+		final IIdGenerator<T, String> idGenerator = newIdGenerator(collectionName);
 
 		return newDomainRepository(typeClass, idGenerator, cachedBackend);
 	}
 
 	public <T extends IDomainObject> DomainRepository<T> newDomainRepository(String collectionName, Class<T> typeClass) {
-		@SuppressWarnings("unchecked") final IIdGenerator<T, String> idGenerator = (IIdGenerator<T, String>) defaultIdGenerator;
+		final IIdGenerator<T, String> idGenerator = newIdGenerator(collectionName);
 
 		return newDomainRepository(typeClass, idGenerator, new ImmediateFlushStorageBackend<>(this, collectionName, defaultFileFormat, s -> s));
 	}
 
+	public <T extends IDomainObject> DomainRepository<T> newLogStructuredDomainRepository(String collectionName, Class<T> typeClass) {
+		final IIdGenerator<T, String> idGenerator = newIdGenerator(collectionName);
+
+		return newDomainRepository(typeClass, idGenerator, new LogStructuredStorageBackend<>(this, collectionName, defaultFileFormat, s -> s));
+	}
+
 	public <T extends IDomainObject> DomainRepository<T> newDomainRepository(Class<T> typeClass, IIdGenerator<T, String> idGenerator, IStorageBackend<String> storageStrategy) {
 		final DomainRepository<T> repository = new DomainRepository<>(typeClass, this, storageStrategy, idGenerator);
 
@@ -180,22 +241,32 @@ public class PojoDB {
 
 	public <T, ID> Repository<T, ID> newCachedRepository(String collectionName, Class<T> typeClass, Function<T, ID> idSupplier, BiConsumer<T, ID> idConsumer,
 			Function<String, ID> idCreator) {
+		return newCachedRepository(collectionName, typeClass, idSupplier, idConsumer, idCreator, CacheOptions.unbounded());
+	}
+
+	public <T, ID> Repository<T, ID> newCachedRepository(String collectionName, Class<T> typeClass, Function<T, ID> idSupplier, BiConsumer<T, ID> idConsumer,
+			Function<String, ID> idCreator, CacheOptions cacheOptions) {
 		final ImmediateFlushStorageBackend<ID> backend = new ImmediateFlushStorageBackend<>(this, collectionName, defaultFileFormat, idCreator);
-		final CacheDecoratorStorageBackend<ID> cachedBackend = new CacheDecoratorStorageBackend<>(backend, typeClass);
-		@SuppressWarnings("unchecked")
-		final IIdGenerator<T, ID> idGenerator = (IIdGenerator<T, ID>) defaultIdGenerator;
+		final CacheDecoratorStorageBackend<ID> cachedBackend = new CacheDecoratorStorageBackend<>(backend, typeClass, cacheOptions);
+		final IIdGenerator<T, ID> idGenerator = newIdGenerator(collectionName);
 		
 		return newRepository(typeClass, idSupplier, idConsumer, idGenerator, cachedBackend);
 	}
 
 	public <T, ID> Repository<T, ID> newRepository(String collectionName, Class<T> typeClass, Function<T, ID> idSupplier, BiConsumer<T, ID> idConsumer,
 			Function<String, ID> idCreator) {
-		@SuppressWarnings("unchecked")
-		final IIdGenerator<T, ID> idGenerator = (IIdGenerator<T, ID>) defaultIdGenerator;
+		final IIdGenerator<T, ID> idGenerator = newIdGenerator(collectionName);
 		
 		return newRepository(typeClass, idSupplier, idConsumer, idGenerator, new ImmediateFlushStorageBackend<>(this, collectionName, defaultFileFormat, idCreator));
 	}
 
+	public <T, ID> Repository<T, ID> newLogStructuredRepository(String collectionName, Class<T> typeClass, Function<T, ID> idSupplier, BiConsumer<T, ID> idConsumer,
+			Function<String, ID> idCreator) {
+		final IIdGenerator<T, ID> idGenerator = newIdGenerator(collectionName);
+
+		return newRepository(typeClass, idSupplier, idConsumer, idGenerator, new LogStructuredStorageBackend<>(this, collectionName, defaultFileFormat, idCreator));
+	}
+
 	public <T, ID> Repository<T, ID> newRepository(Class<T> typeClass, Function<T, ID> idSupplier, BiConsumer<T, ID> idConsumer, IIdGenerator<T, ID> idGenerator,
 			IStorageBackend<ID> storageStrategy) {
 		final Repository<T, ID> repository = new Repository<>(typeClass, idSupplier, idConsumer, this, storageStrategy, idGenerator);
@@ -232,6 +303,36 @@ public class PojoDB {
 		return txManager.newTx(this);
 	}
 
+	/**
+	 * Persists indexes of all repositories, see {@link Repository#checkpointIndexes()}
+	 */
+	public void checkpointIndexes() {
+		synchronized (repositories) {
+			repositories.values().forEach(Repository::checkpointIndexes);
+		}
+	}
+
+	/**
+	 * Closes all registered repositories with their storage backends and then the redo log. Repositories could not be used after close.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			synchronized (repositories) {
+				ExceptionUtils.iterateAllAndThrowIfAnyException(() -> LogUtil.build("Could not close repositories of db: {}", storagePath), repositories.values(),
+						repository -> {
+							try {
+								repository.close();
+							} catch (IOException e) {
+								throw new IllegalArgumentException(e);
+							}
+						});
+			}
+		} finally {
+			redoLogService.close();
+		}
+	}
+
 	public boolean checkForConsistencyAndRepair() {
 		synchronized (repositories) {
 			Preconditions.checkArgument(getRepositories().isEmpty() == false, "Could not check for consistency and repair with no repositories :-(");
@@ -247,8 +348,7 @@ public class PojoDB {
 				// FIXME: 02/10/2017 hacky find repo now
 				if (writeCommand instanceof SaveWriteCommand<?, ?>) {
 					final SaveWriteCommand<?, ?> saveWriteCommand = (SaveWriteCommand<?, ?>) writeCommand;
-					final Object item = saveWriteCommand.getItem();
-					final Repository<?, ?> repository = getRepository(item.getClass());
+					final Repository<?, ?> repository = getRepository(saveWriteCommand.getItemClass());
 
 					try (AutocommitTx<?, ?> autocommitTx = new AutocommitTx<>(repository, writeCommand)) {
 						autocommitTx.skipBegin(opId);
@@ -302,11 +402,25 @@ public class PojoDB {
 
 		private IFileFormatStrategy fileFormat = new JsonFileFormatStrategy();
 
-		private IIdGenerator<?, ?> idGenerator = new LongCounterIdGenerator<>();
+		//redo log is not read by humans, so it's binary regardless of the data format
+		private IFileFormatStrategy redoLogFileFormat = new SmileFileFormatStrategy();
+
+		private IIdGeneratorFactory idGeneratorFactory = (pojoDB, collectionName) -> new LongCounterIdGenerator<>();
 		private IIdGenerator<Object, String> redoLogIdGenerator = new LongCounterIdGenerator<>();
 
+		private Durability durability = Durability.OS_BUFFERED;
+		private long groupCommitWindowNanos = 0;
+
 		private boolean enableValidation = true;
 
+		private boolean persistentIndexes = false;
+
+		private boolean sortedIds = true;
+
+		private IDirectoryLayout directoryLayout = new FlatDirectoryLayout();
+
+		private int lockStripes = LockManager.DEFAULT_STRIPES;
+
 		public PojoDBBuilder withPath(Path storagePath) {
 			this.storagePath = storagePath;
 			return this;
@@ -353,21 +467,102 @@ public class PojoDB {
 			return this;
 		}
 
+		/**
+		 * Binary JSON of jackson, smaller and faster than text formats
+		 *
+		 * @return
+		 */
+		public PojoDBBuilder withSmileFileFormat() {
+			this.fileFormat = new SmileFileFormatStrategy();
+			return this;
+		}
+
+		public PojoDBBuilder withCborFileFormat() {
+			this.fileFormat = new CborFileFormatStrategy();
+			return this;
+		}
+
+		/**
+		 * Format of write commands in the redo log, it's independent of the data file format.
+		 * Incomplete txs must be repaired by {@link PojoDB#checkForConsistencyAndRepair()} before the format is changed.
+		 *
+		 * @param redoLogFileFormat default is {@link SmileFileFormatStrategy}
+		 * @return
+		 */
+		public PojoDBBuilder withRedoLogFileFormat(IFileFormatStrategy redoLogFileFormat) {
+			Preconditions.checkArgument(redoLogFileFormat != null, "Redo log file format could not be null");
+
+			this.redoLogFileFormat = redoLogFileFormat;
+			return this;
+		}
+
 		public PojoDBBuilder withLongCounterIdGenerator() {
-			this.idGenerator = new LongCounterIdGenerator<>();
+			this.idGeneratorFactory = (pojoDB, collectionName) -> new LongCounterIdGenerator<>();
 			this.redoLogIdGenerator = new LongCounterIdGenerator<>();
 			return this;
 		}
 
 		public PojoDBBuilder withUuidIdGenerator() {
-			this.idGenerator = new UuidIdGenerator<>();
+			this.idGeneratorFactory = (pojoDB, collectionName) -> new UuidIdGenerator<>();
 			this.redoLogIdGenerator = new UuidIdGenerator<>();
 			return this;
 		}
 
 		public PojoDBBuilder withProvidedIdGenerator() {
-			this.idGenerator = new ProvidedIdGenerator<>();
-			this.redoLogIdGenerator = new ProvidedIdGenerator<>();
+			this.idGeneratorFactory = (pojoDB, collectionName) -> new ProvidedIdGenerator<>();
+			//redo log records must be always identified by generated op id
+			this.redoLogIdGenerator = new LongCounterIdGenerator<>();
+			return this;
+		}
+
+		public PojoDBBuilder withHiLoIdGenerator() {
+			return withHiLoIdGenerator(HiLoIdGenerator.DEFAULT_BLOCK_SIZE);
+		}
+
+		/**
+		 * Every collection persists its high watermark in _id folder, so stored ids are not scanned on start
+		 *
+		 * @param blockSize count of ids allocated at once by one thread
+		 * @return
+		 */
+		public PojoDBBuilder withHiLoIdGenerator(int blockSize) {
+			Preconditions.checkArgument(blockSize > 0, "Block size must be positive");
+
+			this.idGeneratorFactory = (pojoDB, collectionName) -> HiLoIdGenerator.forCollection(pojoDB, collectionName, blockSize);
+			//redo log records must be always identified by generated op id
+			this.redoLogIdGenerator = new LongCounterIdGenerator<>();
+			return this;
+		}
+
+		public PojoDBBuilder withIdGeneratorFactory(IIdGeneratorFactory idGeneratorFactory) {
+			Preconditions.checkArgument(idGeneratorFactory != null, "Id generator factory could not be null");
+
+			this.idGeneratorFactory = idGeneratorFactory;
+			return this;
+		}
+
+		public PojoDBBuilder withDurability(Durability durability) {
+			Preconditions.checkArgument(durability != null, "Durability could not be null");
+
+			this.durability = durability;
+			return this;
+		}
+
+		/**
+		 * Begin of every tx waits until its redo log record is flushed to the disk, concurrent txs are flushed together.
+		 * Uses {@link Durability#BATCH} unless stronger durability is chosen, the window is used only by {@link Durability#BATCH}.
+		 *
+		 * @param window how long the first tx waits for others to join the flush, 0 to flush immediately
+		 * @param unit of the window
+		 * @return
+		 */
+		public PojoDBBuilder withGroupCommit(long window, TimeUnit unit) {
+			Preconditions.checkArgument(window >= 0, "Group commit window could not be negative");
+
+			if (durability.isForceRedoLog() == false) {
+				this.durability = Durability.BATCH;
+			}
+			this.groupCommitWindowNanos = unit.toNanos(window);
 			return this;
 		}
 
@@ -381,8 +576,62 @@ public class PojoDB {
 			return this;
 		}
 
+		/**
+		 * Indexes are loaded from checkpoints in _index folder made by {@link PojoDB#checkpointIndexes()} and only changes
+		 * after the checkpoint are replayed from the redo log, missing or stale checkpoint falls back to the full build.
+		 * Redo log is kept since the last checkpoint of every index, so checkpoints must be made regularly.
+		 *
+		 * @return
+		 */
+		public PojoDBBuilder withPersistentIndexes() {
+			this.persistentIndexes = true;
+			return this;
+		}
+
+		/**
+		 * Ids of file backends are kept in the hash set instead of the sorted one, it's cheaper to update
+		 * but {@link IStorageBackend#findAllIds()} is not sorted then
+		 *
+		 * @return
+		 */
+		public PojoDBBuilder withUnsortedIds() {
+			this.sortedIds = false;
+			return this;
+		}
+
+		/**
+		 * Files of collections are spread to sub folders, existing collections must be migrated by {@link DirectoryLayoutMigration}
+		 *
+		 * @param directoryLayout e.g. {@link HashedDirectoryLayout} or {@link PrefixDirectoryLayout}
+		 * @return
+		 */
+		public PojoDBBuilder withDirectoryLayout(IDirectoryLayout directoryLayout) {
+			Preconditions.checkArgument(directoryLayout != null, "Directory layout could not be null");
+
+			this.directoryLayout = directoryLayout;
+			return this;
+		}
+
+		public PojoDBBuilder withHashedDirectoryLayout() {
+			return withDirectoryLayout(new HashedDirectoryLayout());
+		}
+
+		/**
+		 * Items are locked by fixed count of striped locks, more stripes means less false sharing of locks between items
+		 *
+		 * @param lockStripes default {@link LockManager#DEFAULT_STRIPES}
+		 * @return
+		 */
+		public PojoDBBuilder withLockStripes(int lockStripes) {
+			Preconditions.checkArgument(lockStripes > 0, "Count of lock stripes must be positive");
+
+			this.lockStripes = lockStripes;
+			return this;
+		}
+
 		public PojoDB build() {
-            return new PojoDB(storagePath, fileFormat, fileFormat, idGenerator, redoLogIdGenerator, enableValidation);
+            return new PojoDB(storagePath, fileFormat, redoLogFileFormat, idGeneratorFactory, redoLogIdGenerator, durability, groupCommitWindowNanos, enableValidation,
+					persistentIndexes, sortedIds, directoryLayout, lockStripes);
 		}
 
 	}
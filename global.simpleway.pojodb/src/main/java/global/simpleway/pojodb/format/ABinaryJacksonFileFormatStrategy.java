@@ -0,0 +1,42 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.format;
+
+import java.io.IOException;
+import java.util.Base64;
+
+/**
+ * Binary format of the jackson mapper, its String form is Base64 of the bytes
+ * 
+ */
+public abstract class ABinaryJacksonFileFormatStrategy extends AJacksonFileFormatStrategy {
+
+	@Override
+	public String toString(Object type) throws IOException {
+		return Base64.getEncoder().encodeToString(toBytes(type));
+	}
+
+	@Override
+	public <T> T fromString(String data, Class<T> clazz) throws IOException {
+		return fromBytes(stringToBytes(data), clazz);
+	}
+
+	@Override
+	public byte[] stringToBytes(String data) {
+		return Base64.getDecoder().decode(data);
+	}
+}
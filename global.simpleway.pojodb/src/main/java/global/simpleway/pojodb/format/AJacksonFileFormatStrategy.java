@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.format;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+/**
+ * File format of the jackson mapper, bytes are (de)serialized directly without String
+ * 
+ */
+public abstract class AJacksonFileFormatStrategy implements IFileFormatStrategy {
+
+	protected abstract ObjectMapper getObjectMapper();
+
+	@Override
+	public String toString(Object type) throws IOException {
+		return getObjectMapper().writeValueAsString(type);
+	}
+
+	@Override
+	public <T> T fromString(String data, Class<T> clazz) throws IOException {
+		return getObjectMapper().readValue(data, clazz);
+	}
+
+	@Override
+	public byte[] toBytes(Object type) throws IOException {
+		return getObjectMapper().writeValueAsBytes(type);
+	}
+
+	@Override
+	public <T> T fromBytes(byte[] data, Class<T> clazz) throws IOException {
+		return getObjectMapper().readValue(data, clazz);
+	}
+
+	@Override
+	public <T> T fromBytes(ByteBuffer data, Class<T> clazz) throws IOException {
+		if (data.hasArray()) {
+			return getObjectMapper().readValue(data.array(), data.arrayOffset() + data.position(), data.remaining(), clazz);
+		}
+
+		return getObjectMapper().readValue(new ByteBufferBackedInputStream(data.duplicate()), clazz);
+	}
+
+	@Override
+	public void write(Object type, OutputStream output) throws IOException {
+		getObjectMapper().writer()
+				.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+				.writeValue(output, type);
+	}
+
+	@Override
+	public <T> T read(InputStream input, Class<T> clazz) throws IOException {
+		return getObjectMapper().readerFor(clazz)
+				.without(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+				.readValue(input);
+	}
+}
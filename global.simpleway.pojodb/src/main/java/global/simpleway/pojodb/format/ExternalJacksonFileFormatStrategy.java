@@ -16,8 +16,6 @@
 
 package global.simpleway.pojodb.format;
 
-import java.io.IOException;
-
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
 
@@ -36,12 +34,7 @@ public class ExternalJacksonFileFormatStrategy extends JsonFileFormatStrategy {
 	}
 
 	@Override
-	public String toString(Object type) throws IOException {
-		return externalJackson.writeValueAsString(type);
-	}
-
-	@Override
-	public <T> T fromString(String data, Class<T> clazz) throws IOException {
-		return externalJackson.readValue(data, clazz);
+	protected ObjectMapper getObjectMapper() {
+		return externalJackson;
 	}
 }
@@ -17,9 +17,20 @@
 package global.simpleway.pojodb.format;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
 
 /**
  * BO to String (de)serializer 
+ * <p>
+ * Byte and stream methods are used by storage, String methods are kept for compatibility. Default implementations
+ * adapt everything to the String methods, so implementing them is enough for text formats.
  * 
  */
 public interface IFileFormatStrategy {
@@ -45,5 +56,90 @@ public interface IFileFormatStrategy {
 	 * @throws IOException
 	 */
 	public <T> T fromString(String data, Class<T> clazz) throws IOException;
+
+	/**
+	 * Serializes BO to the content of the file, text formats are encoded in UTF-8
+	 * 
+	 * @param type to be serialized
+	 * @return
+	 * @throws IOException
+	 */
+	public default byte[] toBytes(Object type) throws IOException {
+		return toString(type).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Converts String form of the BO from {@link #toString(Object)} to the content of the file, text formats are encoded in UTF-8
+	 * 
+	 * @param data String form of the BO
+	 * @return
+	 */
+	public default byte[] stringToBytes(String data) {
+		return data.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Deserialize content of the file to the BO
+	 * 
+	 * @param data content of the file
+	 * @param clazz of the result to be deserialized
+	 * @return
+	 * @throws IOException
+	 */
+	public default <T> T fromBytes(byte[] data, Class<T> clazz) throws IOException {
+		return fromString(new String(data, StandardCharsets.UTF_8), clazz);
+	}
+
+	/**
+	 * Deserialize remaining bytes of the buffer to the BO, position of the buffer is not changed
+	 * 
+	 * @param data content of the file
+	 * @param clazz of the result to be deserialized
+	 * @return
+	 * @throws IOException
+	 */
+	public default <T> T fromBytes(ByteBuffer data, Class<T> clazz) throws IOException {
+		final byte[] bytes = new byte[data.remaining()];
+		data.duplicate().get(bytes);
+
+		return fromBytes(bytes, clazz);
+	}
+
+	/**
+	 * Serializes BO to the stream, stream is not closed
+	 * 
+	 * @param type to be serialized
+	 * @param output to write to
+	 * @throws IOException
+	 */
+	public default void write(Object type, OutputStream output) throws IOException {
+		output.write(toBytes(type));
+	}
+
+	/**
+	 * Serializes BO to the channel, channel is not closed
+	 * 
+	 * @param type to be serialized
+	 * @param channel to write to
+	 * @throws IOException
+	 */
+	public default void write(Object type, WritableByteChannel channel) throws IOException {
+		final OutputStream output = Channels.newOutputStream(channel);
+
+		write(type, output);
+		output.flush();
+	}
+
+	/**
+	 * Deserialize the rest of the stream to the BO, stream is not closed
+	 * 
+	 * @param input to read from
+	 * @param clazz of the result to be deserialized
+	 * @return
+	 * @throws IOException
+	 */
+	public default <T> T read(InputStream input, Class<T> clazz) throws IOException {
+		return fromBytes(IOUtils.toByteArray(input), clazz);
+	}
 	
 }
@@ -16,15 +16,13 @@
 
 package global.simpleway.pojodb.format;
 
-import java.io.IOException;
-
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * JSON file format for the flat file storage
  * 
  */
-public class JsonFileFormatStrategy implements IFileFormatStrategy {
+public class JsonFileFormatStrategy extends AJacksonFileFormatStrategy {
 	
 	// thread safe instance of the jackson configured on default values
 	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
@@ -35,12 +33,7 @@ public class JsonFileFormatStrategy implements IFileFormatStrategy {
 	}
 
 	@Override
-	public String toString(Object type) throws IOException {
-		return OBJECT_MAPPER.writeValueAsString(type);
-	}
-
-	@Override
-	public <T> T fromString(String data, Class<T> clazz) throws IOException {
-		return OBJECT_MAPPER.readValue(data, clazz);
+	protected ObjectMapper getObjectMapper() {
+		return OBJECT_MAPPER;
 	}
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.format;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Smile format for the flat file storage, binary JSON of jackson
+ * 
+ */
+public class SmileFileFormatStrategy extends ABinaryJacksonFileFormatStrategy {
+
+	//thread safe instance of jackson mapper configured for the Smile file format
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper(new SmileFactory());
+
+	@Override
+	public String getFileExtension() {
+		return ".smile";
+	}
+
+	@Override
+	protected ObjectMapper getObjectMapper() {
+		return OBJECT_MAPPER;
+	}
+}
@@ -16,8 +16,6 @@
 
 package global.simpleway.pojodb.format;
 
-import java.io.IOException;
-
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 
@@ -25,7 +23,7 @@ import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
  * YAML format for the flat file storage
  * 
  */
-public class YamlFileFormatStrategy implements IFileFormatStrategy {
+public class YamlFileFormatStrategy extends AJacksonFileFormatStrategy {
 
 	//thread safe instance of jackson mapper configured for the YAML file format 
 	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper(new YAMLFactory());
@@ -36,12 +34,7 @@ public class YamlFileFormatStrategy implements IFileFormatStrategy {
 	}
 
 	@Override
-	public String toString(Object type) throws IOException {
-		return OBJECT_MAPPER.writeValueAsString(type);
-	}
-
-	@Override
-	public <T> T fromString(String data, Class<T> clazz) throws IOException {
-		return OBJECT_MAPPER.readValue(data, clazz);
+	protected ObjectMapper getObjectMapper() {
+		return OBJECT_MAPPER;
 	}
 }
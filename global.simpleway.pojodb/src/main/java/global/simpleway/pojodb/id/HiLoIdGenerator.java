@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.id;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import global.simpleway.pojodb.PojoDB;
+import global.simpleway.pojodb.repository.NioFileUtils;
+import global.simpleway.pojodb.storage.Durability;
+import global.simpleway.pojodb.utils.LogUtil;
+
+/**
+ * Generates Ids as sequence from 1 and higher per collection, every thread is allocating ids from its own block.
+ * <p>
+ * End of the last allocated block (high watermark) is persisted in a small file before any id of the block is used,
+ * so there is no need to scan stored ids on start. Ids of blocks not used before restart are skipped.
+ */
+public class HiLoIdGenerator<T> implements IIdGenerator<T, String> {
+
+	private static final Logger logger = LoggerFactory.getLogger(HiLoIdGenerator.class);
+
+	public static final int DEFAULT_BLOCK_SIZE = 128;
+
+	private static final String NEW_EXTENSION = ".new";
+
+	private final Path watermarkPath;
+
+	private final int blockSize;
+
+	private final Durability durability;
+
+	//watermark file was found on start
+	private final boolean watermarkLoaded;
+
+	//first id which is not allocated to any block
+	private long high = 1;
+
+	//changed when last id is set, blocks allocated before are not used anymore
+	private volatile long epoch;
+
+	private final ThreadLocal<Block> currentBlock = new ThreadLocal<>();
+
+	public HiLoIdGenerator(Path watermarkPath, int blockSize, Durability durability) {
+		Preconditions.checkArgument(blockSize > 0, "Block size must be positive");
+
+		this.watermarkPath = watermarkPath;
+		this.blockSize = blockSize;
+		this.durability = durability;
+
+		this.watermarkLoaded = load();
+	}
+
+	/**
+	 * Generator with watermark file in _id folder of the storage
+	 */
+	public static <T> HiLoIdGenerator<T> forCollection(PojoDB pojoDB, String collectionName, int blockSize) {
+		final Path watermarkPath = pojoDB.getStoragePath().resolve("_id").resolve(collectionName + ".hwm");
+
+		return new HiLoIdGenerator<>(watermarkPath, blockSize, pojoDB.getDurability());
+	}
+
+	private boolean load() {
+		if (NioFileUtils.exists(watermarkPath) == false) return false;
+
+		try {
+			high = Long.parseLong(NioFileUtils.read(watermarkPath).trim());
+			return true;
+		} catch (IOException | NumberFormatException e) {
+			//ids are recovered from the stored ones
+			logger.warn("Could not read id watermark: {}, skipping", watermarkPath, e);
+			return false;
+		}
+	}
+
+	@Override
+	public boolean isLastIdRequired() {
+		return watermarkLoaded == false;
+	}
+
+	@Override
+	public synchronized void setLastId(String id) {
+		long lastId = 0;
+
+		if (id != null) {
+			try {
+				lastId = Long.parseLong(id);
+			} catch (NumberFormatException e) {
+				logger.warn("Could not parse [{}] to long, skipping", id);
+			}
+		}
+
+		high = Math.max(high, lastId + 1);
+		epoch++;
+	}
+
+	@Override
+	public String getNextId() {
+		Block block = currentBlock.get();
+
+		if (block == null || block.next >= block.end || block.epoch != epoch) {
+			block = allocateBlock();
+			currentBlock.set(block);
+		}
+
+		return "" + block.next++;
+	}
+
+	private synchronized Block allocateBlock() {
+		final long start = high;
+		final long end = start + blockSize;
+
+		try {
+			final Path newPath = watermarkPath.resolveSibling(watermarkPath.getFileName() + NEW_EXTENSION);
+
+			Files.createDirectories(watermarkPath.getParent());
+			NioFileUtils.save(newPath, "" + end, durability);
+			NioFileUtils.rename(newPath, watermarkPath, durability);
+		} catch (IOException e) {
+			throw new IllegalStateException(LogUtil.build("Could not persist id watermark: {}", watermarkPath), e);
+		}
+
+		high = end;
+
+		return new Block(start, end, epoch);
+	}
+
+	@Override
+	public void setNextId(T pojo, BiConsumer<T, String> setIdConsumer) {
+		if (pojo != null) {
+			setIdConsumer.accept(pojo, getNextId());
+		}
+	}
+
+	private static class Block {
+
+		private long next;
+
+		private final long end;
+
+		private final long epoch;
+
+		private Block(long next, long end, long epoch) {
+			this.next = next;
+			this.end = end;
+			this.epoch = epoch;
+		}
+	}
+}
@@ -16,6 +16,7 @@
 
 package global.simpleway.pojodb.id;
 
+import java.util.Collection;
 import java.util.function.BiConsumer;
 
 /**
@@ -30,6 +31,29 @@ public interface IIdGenerator<T, ID> {
 	 */
 	public void setLastId(ID id);
 
+	/**
+	 * Marks the highest of all stored ids as the last used one
+	 *
+	 * @param ids of all stored items
+	 */
+	@SuppressWarnings("unchecked")
+	public default void setLastIds(Collection<ID> ids) {
+		final ID lastId = ids.stream()
+				.map(id -> (Comparable<Object>) id)
+				.max(Comparable::compareTo)
+				.map(id -> (ID) id)
+				.orElse(null);
+
+		setLastId(lastId);
+	}
+
+	/**
+	 * @return false when generator does not depend on already stored ids, so the repository does not have to scan them on start
+	 */
+	public default boolean isLastIdRequired() {
+		return true;
+	}
+
 	/**
 	 * Computes next id
 	 *
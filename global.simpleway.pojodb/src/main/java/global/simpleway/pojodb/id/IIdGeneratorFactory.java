@@ -0,0 +1,33 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.id;
+
+import global.simpleway.pojodb.PojoDB;
+
+/**
+ * Creates id generator for every new repository, so collections are not sharing one id space
+ */
+@FunctionalInterface
+public interface IIdGeneratorFactory {
+
+	/**
+	 * @param pojoDB owning the repository
+	 * @param collectionName name of the collection of the repository
+	 * @return
+	 */
+	public IIdGenerator<?, ?> create(PojoDB pojoDB, String collectionName);
+}
@@ -16,6 +16,7 @@
 
 package global.simpleway.pojodb.id;
 
+import java.util.Collection;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 
@@ -51,6 +52,33 @@ public class LongCounterIdGenerator<T> implements IIdGenerator<T,String> {
 		}
 	}
 
+	/**
+	 * Ids are compared as numbers, not as strings where "9" is after "10". Not numeric ids are skipped and logged once per call.
+	 */
+	@Override
+	public void setLastIds(Collection<String> ids) {
+		long lastId = 0;
+
+		int skipped = 0;
+		String firstSkipped = null;
+
+		for (String id : ids) {
+			try {
+				lastId = Math.max(lastId, Long.parseLong(id));
+			} catch (NumberFormatException e) {
+				if (skipped++ == 0) {
+					firstSkipped = id;
+				}
+			}
+		}
+
+		if (skipped > 0) {
+			logger.warn("Could not parse {} of {} ids to long, skipping them, e.g. [{}]", skipped, ids.size(), firstSkipped);
+		}
+
+		setLastId("" + lastId);
+	}
+
 	@Override
 	public String getNextId() {
 		return "" + counter.incrementAndGet();
@@ -28,6 +28,11 @@ public class ProvidedIdGenerator<T,ID> implements IIdGenerator<T,ID> {
 		//no code	
 	}
 
+	@Override
+	public boolean isLastIdRequired() {
+		return false;
+	}
+
 	@Override
 	public ID getNextId() {
 		return null;
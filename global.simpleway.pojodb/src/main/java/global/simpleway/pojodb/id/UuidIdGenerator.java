@@ -29,6 +29,11 @@ public class UuidIdGenerator<T> implements IIdGenerator<T,String> {
 		//no code	
 	}
 
+	@Override
+	public boolean isLastIdRequired() {
+		return false;
+	}
+
 	@Override
 	public String getNextId() {
 		return (String) UUID.randomUUID().toString();
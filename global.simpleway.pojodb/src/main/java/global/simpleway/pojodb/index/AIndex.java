@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.index;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Secondary index of the repository from the key of an item to ids of items with that key.
+ * <p>
+ * Index is changed only by committed data, see {@link IndexManager}. Items with null key are not indexed.
+ */
+public abstract class AIndex<T, ID, K> {
+
+	private final String name;
+
+	private final Function<T, K> keyExtractor;
+
+	//last published key of every indexed item, used to remove the item from the old key
+	private final ConcurrentMap<ID, K> keys = new ConcurrentHashMap<>();
+
+	//ids changed by commits while the index is built, loaded values of them are already stale
+	private Set<ID> touched = null;
+
+	protected AIndex(String name, Function<T, K> keyExtractor) {
+		this.name = name;
+		this.keyExtractor = keyExtractor;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public K extractKey(T item) {
+		if (item == null) return null;
+
+		return keyExtractor.apply(item);
+	}
+
+	/**
+	 * @param key
+	 * @return ids of the items with the key
+	 */
+	public abstract Set<ID> find(K key);
+
+	/**
+	 * @return count of indexed items
+	 */
+	public int size() {
+		return keys.size();
+	}
+
+	protected abstract void add(ID id, K key);
+
+	protected abstract void remove(ID id, K key);
+
+	/**
+	 * Must be called while holding the monitor of the index
+	 */
+	/*package*/ Map<ID, K> copyKeys() {
+		return new HashMap<>(keys);
+	}
+
+	/**
+	 * Adds keys from the checkpoint during build, unless the items were changed by a commit meanwhile
+	 */
+	/*package*/ synchronized void restore(Map<ID, K> restoredKeys) {
+		restoredKeys.forEach((id, key) -> {
+			if (touched != null && touched.contains(id)) return;
+
+			doUpdate(id, key);
+		});
+	}
+
+	/*package*/ synchronized void startBuild() {
+		touched = new HashSet<>();
+	}
+
+	/*package*/ synchronized void finishBuild() {
+		touched = null;
+	}
+
+	/**
+	 * Adds the item read from the storage during build, unless it was changed by a commit meanwhile
+	 */
+	/*package*/ synchronized void load(ID id, T item) {
+		if (touched != null && touched.contains(id)) return;
+
+		doUpdate(id, extractKey(item));
+	}
+
+	/**
+	 * Publishes committed change of the item
+	 *
+	 * @param key new key of the item, null for deleted item
+	 */
+	/*package*/ synchronized void update(ID id, K key) {
+		if (touched != null) {
+			touched.add(id);
+		}
+
+		doUpdate(id, key);
+	}
+
+	private void doUpdate(ID id, K key) {
+		final K oldKey = key == null ? keys.remove(id) : keys.put(id, key);
+
+		if (oldKey != null) {
+			remove(id, oldKey);
+		}
+		if (key != null) {
+			add(id, key);
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.index;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Equality index, multimap from key to ids
+ */
+public class HashIndex<T, ID, K> extends AIndex<T, ID, K> {
+
+	private final ConcurrentMap<K, Set<ID>> ids = new ConcurrentHashMap<>();
+
+	public HashIndex(String name, Function<T, K> keyExtractor) {
+		super(name, keyExtractor);
+	}
+
+	@Override
+	public Set<ID> find(K key) {
+		if (key == null) return Collections.emptySet();
+
+		final Set<ID> found = ids.get(key);
+		if (found == null) return Collections.emptySet();
+
+		return Collections.unmodifiableSet(found);
+	}
+
+	@Override
+	protected void add(ID id, K key) {
+		ids.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(id);
+	}
+
+	@Override
+	protected void remove(ID id, K key) {
+		ids.computeIfPresent(key, (k, found) -> {
+			found.remove(id);
+			return found.isEmpty() ? null : found;
+		});
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import global.simpleway.pojodb.redoLog.RedoLogPosition;
+import global.simpleway.pojodb.repository.NioFileUtils;
+import global.simpleway.pojodb.storage.Durability;
+import global.simpleway.pojodb.utils.LogUtil;
+
+/**
+ * Index state persisted to the file: [int version][UTF redo log id][long redo log sequence][long redo log position][set of pending ids][map of id to key]
+ * <p>
+ * All txs ended before the redo log position are in the keys or in pending ids (staged but not published yet),
+ * changes of txs ended after the position must be replayed from the redo log.
+ */
+public class IndexCheckpoint<ID, K> {
+
+	private static final int VERSION = 1;
+
+	private final RedoLogPosition position;
+
+	private final Set<ID> pendingIds;
+
+	private final Map<ID, K> keys;
+
+	public IndexCheckpoint(RedoLogPosition position, Set<ID> pendingIds, Map<ID, K> keys) {
+		this.position = position;
+		this.pendingIds = pendingIds;
+		this.keys = keys;
+	}
+
+	public RedoLogPosition getPosition() {
+		return position;
+	}
+
+	public Set<ID> getPendingIds() {
+		return pendingIds;
+	}
+
+	public Map<ID, K> getKeys() {
+		return keys;
+	}
+
+	public void write(Path path, Durability durability) throws IOException {
+		final Path newPath = path.resolveSibling(path.getFileName() + ".new");
+
+		Files.createDirectories(path.getParent());
+
+		try (FileChannel channel = FileChannel.open(newPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			final ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+			output.writeInt(VERSION);
+			output.writeUTF(position.getLogId());
+			output.writeLong(position.getSequence());
+			output.writeLong(position.getPosition());
+			output.writeObject(new HashSet<>(pendingIds));
+			output.writeObject(new HashMap<>(keys));
+			output.flush();
+
+			durability.force(channel);
+		}
+
+		NioFileUtils.rename(newPath, path, durability);
+	}
+
+	/**
+	 * @return checkpoint or null when the file does not exist
+	 */
+	@SuppressWarnings("unchecked")
+	public static <ID, K> IndexCheckpoint<ID, K> read(Path path) throws IOException {
+		if (NioFileUtils.exists(path) == false) return null;
+
+		try (ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			final int version = input.readInt();
+			if (version != VERSION) throw new IOException(LogUtil.build("Unknown version {} of index checkpoint: {}", version, path));
+
+			final RedoLogPosition position = new RedoLogPosition(input.readUTF(), input.readLong(), input.readLong());
+			final Set<ID> pendingIds = (Set<ID>) input.readObject();
+			final Map<ID, K> keys = (Map<ID, K>) input.readObject();
+
+			return new IndexCheckpoint<>(position, pendingIds, keys);
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new IOException(LogUtil.build("Could not read index checkpoint: {}", path), e);
+		}
+	}
+}
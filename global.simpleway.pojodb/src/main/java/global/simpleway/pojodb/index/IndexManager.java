@@ -0,0 +1,277 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.index;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import global.simpleway.pojodb.redoLog.RedoLogPosition;
+import global.simpleway.pojodb.redoLog.RedoLogService;
+import global.simpleway.pojodb.storage.Durability;
+import global.simpleway.pojodb.utils.LogUtil;
+
+/**
+ * Secondary indexes of one repository.
+ * <p>
+ * Changes of running txs are staged per opId with keys extracted at commit time and published to the indexes only
+ * after the storage commit is finished (when backup is cleared), so the index is never ahead of committed data.
+ * Rollback discards staged changes.
+ * <p>
+ * Indexes could be persisted by {@link #checkpoint(AIndex, Path, RedoLogService, Durability)} and restored on start
+ * by {@link #restore(AIndex, Path, RedoLogService, Class, Function)} with replay of changes recorded in the redo log after the checkpoint.
+ */
+public class IndexManager<T, ID> {
+
+	private static final Logger logger = LoggerFactory.getLogger(IndexManager.class);
+
+	private final ConcurrentMap<String, AIndex<T, ID, ?>> indexes = new ConcurrentHashMap<>();
+
+	//opId to staged changes of items
+	private final ConcurrentMap<String, ConcurrentMap<ID, StagedChange<T>>> staged = new ConcurrentHashMap<>();
+
+	//running txs of items, changed only in compute of the map
+	private final ConcurrentMap<ID, CurrentTxs> currentTxs = new ConcurrentHashMap<>();
+
+	/**
+	 * Registers the index, it has to be built by {@link #load(AIndex, Object, Object)} calls and {@link #finishBuild(AIndex)} then
+	 */
+	public void register(AIndex<T, ID, ?> index) {
+		index.startBuild();
+
+		if (indexes.putIfAbsent(index.getName(), index) != null) {
+			throw new IllegalArgumentException(LogUtil.build("Index with name: {} already exists.", index.getName()));
+		}
+	}
+
+	public void load(AIndex<T, ID, ?> index, ID id, T item) {
+		index.load(id, item);
+	}
+
+	public void finishBuild(AIndex<T, ID, ?> index) {
+		index.finishBuild();
+	}
+
+	public boolean remove(String name) {
+		return indexes.remove(name) != null;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <K> AIndex<T, ID, K> getIndex(String name) {
+		final AIndex<T, ID, ?> index = indexes.get(name);
+		if (index == null) throw new IllegalArgumentException(LogUtil.build("Index with name: {} does not exist.", name));
+
+		return (AIndex<T, ID, K>) index;
+	}
+
+	public Collection<AIndex<T, ID, ?>> getIndexes() {
+		return Collections.unmodifiableCollection(indexes.values());
+	}
+
+	public boolean isEmpty() {
+		return indexes.isEmpty();
+	}
+
+	public void stageSave(String opId, ID id, T item) {
+		if (indexes.isEmpty()) return;
+
+		final Map<String, Object> keys = new HashMap<>();
+		indexes.values().forEach(index -> keys.put(index.getName(), index.extractKey(item)));
+
+		stage(opId, id, new StagedChange<>(item, keys));
+	}
+
+	public void stageDelete(String opId, ID id) {
+		if (indexes.isEmpty()) return;
+
+		stage(opId, id, new StagedChange<>(null, Collections.emptyMap()));
+	}
+
+	private void stage(String opId, ID id, StagedChange<T> change) {
+		staged.computeIfAbsent(opId, o -> new ConcurrentHashMap<>()).put(id, change);
+	}
+
+	/**
+	 * Tx of the item is started, it has to be finished by {@link #publish(String, Object, Function)}
+	 */
+	public void begin(ID id) {
+		currentTxs.compute(id, (key, txs) -> {
+			if (txs == null) return new CurrentTxs();
+
+			txs.count++;
+			txs.overlapped = true;
+			return txs;
+		});
+	}
+
+	/**
+	 * Storage commit of the item is finished (or rolled back), change is visible in indexes from now.
+	 * <p>
+	 * Order of writes of overlapping txs of the item is not known, so their staged changes are not published,
+	 * instead the item is reindexed from the committed state when the last of them is finished.
+	 *
+	 * @param reader of the committed item, null when it does not exist
+	 */
+	public void publish(String opId, ID id, Function<ID, T> reader) {
+		currentTxs.compute(id, (key, txs) -> {
+			final boolean overlapped = txs != null && txs.overlapped;
+
+			if (overlapped == false) {
+				publishStaged(opId, id);
+			} else {
+				unstage(opId, id);
+			}
+
+			if (txs == null || --txs.count > 0) return txs;
+
+			//reindexed in the compute, so no other tx of the item could be published meanwhile
+			if (overlapped) {
+				final T item = reader.apply(id);
+				indexes.values().forEach(index -> update(index, id, index.extractKey(item)));
+			}
+			return null;
+		});
+	}
+
+	private void publishStaged(String opId, ID id) {
+		final Map<ID, StagedChange<T>> changes = staged.get(opId);
+		final StagedChange<T> change = changes == null ? null : changes.get(id);
+		if (change == null) return;
+
+		for (AIndex<T, ID, ?> index : indexes.values()) {
+			//index could be added after the change was staged
+			final Object key = change.keys.containsKey(index.getName()) ? change.keys.get(index.getName()) : index.extractKey(change.item);
+
+			update(index, id, key);
+		}
+
+		//unstaged after the update, so checkpoint sees the change at least in one of them
+		unstage(opId, id);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T, ID> void update(AIndex<T, ID, ?> index, ID id, Object key) {
+		((AIndex<T, ID, Object>) index).update(id, key);
+	}
+
+	public void discard(String opId, ID id) {
+		unstage(opId, id);
+	}
+
+	private StagedChange<T> unstage(String opId, ID id) {
+		final AtomicReference<StagedChange<T>> removed = new AtomicReference<>();
+
+		staged.computeIfPresent(opId, (o, changes) -> {
+			removed.set(changes.remove(id));
+			return changes.isEmpty() ? null : changes;
+		});
+
+		return removed.get();
+	}
+
+	/**
+	 * Persists the index, all txs ended before the returned position are included in the file
+	 *
+	 * @param path of the checkpoint file
+	 * @return position of the redo log from which changes are not included
+	 */
+	public RedoLogPosition checkpoint(AIndex<T, ID, ?> index, Path path, RedoLogService redoLogService, Durability durability) throws IOException {
+		final RedoLogPosition position = redoLogService.getPosition();
+
+		final Map<ID, ?> keys;
+		final Set<ID> pendingIds = new HashSet<>();
+
+		synchronized (index) {
+			keys = index.copyKeys();
+			staged.values().forEach(changes -> pendingIds.addAll(changes.keySet()));
+		}
+
+		new IndexCheckpoint<>(position, pendingIds, keys).write(path, durability);
+
+		return position;
+	}
+
+	/**
+	 * Loads registered index from the checkpoint and reindexes items changed after it
+	 *
+	 * @param typeClass of the repository, changes of other items in the redo log are skipped
+	 * @param reader of the current committed item, null when it does not exist
+	 * @return position of the checkpoint or null when the index could not be restored and must be built from all items
+	 */
+	@SuppressWarnings("unchecked")
+	public RedoLogPosition restore(AIndex<T, ID, ?> index, Path path, RedoLogService redoLogService, Class<?> typeClass, Function<ID, T> reader) {
+		try {
+			final IndexCheckpoint<ID, Object> checkpoint = IndexCheckpoint.read(path);
+			if (checkpoint == null) return null;
+
+			final Set<ID> changed = new HashSet<>(checkpoint.getPendingIds());
+			final boolean covered = redoLogService.forEachTouchedIdSince(checkpoint.getPosition(), (itemClass, id) -> {
+				if (typeClass.isAssignableFrom(itemClass)) {
+					changed.add((ID) id);
+				}
+			});
+
+			if (covered == false) {
+				logger.info("Redo log does not contain all changes after checkpoint {} of index {}, rebuilding", checkpoint.getPosition(), index.getName());
+				return null;
+			}
+
+			((AIndex<T, ID, Object>) index).restore(checkpoint.getKeys());
+			changed.forEach(id -> index.load(id, reader.apply(id)));
+
+			logger.debug("Index {} restored from checkpoint {} with {} changed items", index.getName(), checkpoint.getPosition(), changed.size());
+			return checkpoint.getPosition();
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Could not restore index {} from checkpoint: {}, rebuilding", index.getName(), path, e);
+			return null;
+		}
+	}
+
+	private static class CurrentTxs {
+
+		private int count = 1;
+
+		//more txs of the item were running at the same time
+		private boolean overlapped = false;
+	}
+
+	private static class StagedChange<T> {
+
+		//null for DELETE
+		private final T item;
+
+		//index name to key extracted at commit time
+		private final Map<String, Object> keys;
+
+		private StagedChange(T item, Map<String, Object> keys) {
+			this.item = item;
+			this.keys = keys;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.index;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Ordered index, sorted map from key to ids, supports equality, range and prefix queries and iteration in both directions
+ */
+public class RangeIndex<T, ID, K> extends AIndex<T, ID, K> {
+
+	private final ConcurrentSkipListMap<K, Set<ID>> ids;
+
+	/**
+	 * Keys are compared by their natural order
+	 */
+	public static <T, ID, K extends Comparable<? super K>> RangeIndex<T, ID, K> naturalOrder(String name, Function<T, K> keyExtractor) {
+		return new RangeIndex<>(name, keyExtractor, Comparator.naturalOrder());
+	}
+
+	public RangeIndex(String name, Function<T, K> keyExtractor, Comparator<? super K> comparator) {
+		super(name, keyExtractor);
+
+		this.ids = new ConcurrentSkipListMap<>(comparator);
+	}
+
+	@Override
+	public Set<ID> find(K key) {
+		if (key == null) return Collections.emptySet();
+
+		final Set<ID> found = ids.get(key);
+		if (found == null) return Collections.emptySet();
+
+		return Collections.unmodifiableSet(found);
+	}
+
+	/**
+	 * @param from inclusive, null for no lower bound
+	 * @param to exclusive, null for no upper bound
+	 * @param ascending order of the keys
+	 * @return ids with keys in the range
+	 */
+	public Stream<ID> range(K from, K to, boolean ascending) {
+		NavigableMap<K, Set<ID>> range = ids;
+
+		if (from != null && to != null) {
+			range = ids.subMap(from, true, to, false);
+		} else if (from != null) {
+			range = ids.tailMap(from, true);
+		} else if (to != null) {
+			range = ids.headMap(to, false);
+		}
+
+		if (ascending == false) {
+			range = range.descendingMap();
+		}
+
+		return range.values()
+				.stream()
+				.flatMap(Set::stream);
+	}
+
+	/**
+	 * @param ascending order of the keys
+	 * @return ids of all indexed items
+	 */
+	public Stream<ID> all(boolean ascending) {
+		return range(null, null, ascending);
+	}
+
+	@Override
+	protected void add(ID id, K key) {
+		ids.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(id);
+	}
+
+	@Override
+	protected void remove(ID id, K key) {
+		ids.computeIfPresent(key, (k, found) -> {
+			found.remove(id);
+			return found.isEmpty() ? null : found;
+		});
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.lock;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Item level locks of the database, e.g. by path of the item file.
+ * <p>
+ * Keys are hashed to the fixed count of {@link ReadWriteLock} stripes, so memory does not grow with count of touched items.
+ * Different keys could share the stripe, so the caller must not lock another key while holding a lock.
+ * <p>
+ * Locks are reentrant, but read lock could not be upgraded to write lock.
+ */
+@ThreadSafe
+public class LockManager {
+
+	public static final int DEFAULT_STRIPES = 1024;
+
+	private final Striped<ReadWriteLock> locks;
+
+	private final LongAdder acquiredCount = new LongAdder();
+
+	private final LongAdder contendedCount = new LongAdder();
+
+	private final LongAdder waitNanos = new LongAdder();
+
+	public LockManager() {
+		this(DEFAULT_STRIPES);
+	}
+
+	public LockManager(int stripes) {
+		Preconditions.checkArgument(stripes > 0, "Count of stripes must be positive");
+
+		this.locks = Striped.readWriteLock(stripes);
+	}
+
+	/**
+	 * Shared lock, concurrent readers of the same key do not block each other
+	 *
+	 * @param key
+	 * @return acquired lock, release it by {@link Handle#unlock()}
+	 */
+	public Handle readLock(Object key) {
+		return acquire(locks.get(key).readLock());
+	}
+
+	/**
+	 * Exclusive lock
+	 *
+	 * @param key
+	 * @return acquired lock, release it by {@link Handle#unlock()}
+	 */
+	public Handle writeLock(Object key) {
+		return acquire(locks.get(key).writeLock());
+	}
+
+	/**
+	 * @param key
+	 * @return lock of the stripe of the key, shared with other keys of the same stripe
+	 */
+	@VisibleForTesting
+	public ReadWriteLock getLock(Object key) {
+		return locks.get(key);
+	}
+
+	private Handle acquire(Lock lock) {
+		acquiredCount.increment();
+
+		if (lock.tryLock() == false) {
+			contendedCount.increment();
+
+			final long start = System.nanoTime();
+			lock.lock();
+			waitNanos.add(System.nanoTime() - start);
+		}
+
+		return new Handle(lock);
+	}
+
+	public int getStripes() {
+		return locks.size();
+	}
+
+	/**
+	 * @return count of all acquired locks
+	 */
+	public long getAcquiredCount() {
+		return acquiredCount.sum();
+	}
+
+	/**
+	 * @return count of acquired locks which were held by another thread
+	 */
+	public long getContendedCount() {
+		return contendedCount.sum();
+	}
+
+	/**
+	 * @return total time spent waiting for contended locks
+	 */
+	public long getWaitNanos() {
+		return waitNanos.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "LockManager{stripes=" + getStripes() + ", acquired=" + getAcquiredCount() + ", contended=" + getContendedCount() + ", waitNanos=" + getWaitNanos() + '}';
+	}
+
+	/**
+	 * Acquired lock, release it in finally block or by try with resources
+	 */
+	public static class Handle implements AutoCloseable {
+
+		private final Lock lock;
+
+		private Handle(Lock lock) {
+			this.lock = lock;
+		}
+
+		public void unlock() {
+			lock.unlock();
+		}
+
+		@Override
+		public void close() {
+			unlock();
+		}
+	}
+}
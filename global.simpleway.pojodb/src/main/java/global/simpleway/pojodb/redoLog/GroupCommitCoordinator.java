@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.redoLog;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import global.simpleway.pojodb.utils.LogUtil;
+
+/**
+ * Makes appended records durable with one flush for all concurrent writers.
+ * <p>
+ * First writer waiting for its record becomes leader of the batch, waits for the window so others could append and join,
+ * then flushes the log once and wakes up all writers whose records are covered by the flush. Writers appended during the flush
+ * are waiting for the next batch.
+ */
+public class GroupCommitCoordinator {
+
+	/**
+	 * Log whose appends are made durable in batches
+	 */
+	public interface ISyncTarget {
+
+		/**
+		 * @return position after the last appended record
+		 */
+		public long getAppendedLsn();
+
+		/**
+		 * Forces at least all records appended before the call to the disk
+		 *
+		 * @throws IOException
+		 */
+		public void force() throws IOException;
+	}
+
+	private final ISyncTarget target;
+
+	private final long windowNanos;
+
+	private long durableLsn;
+
+	//there is leader flushing right now
+	private boolean syncing;
+
+	//last failed flush and position it should cover
+	private IOException failure;
+	private long failedLsn = -1;
+
+	private final AtomicLong syncCount = new AtomicLong();
+
+	public GroupCommitCoordinator(ISyncTarget target, long windowNanos) {
+		this.target = target;
+		this.windowNanos = windowNanos;
+	}
+
+	/**
+	 * Blocks until all records up to lsn are flushed
+	 *
+	 * @param lsn position after the record of the caller
+	 * @throws IOException when flush covering the record failed
+	 */
+	public void awaitDurable(long lsn) throws IOException {
+		while (true) {
+			synchronized (this) {
+				while (true) {
+					if (durableLsn >= lsn) return;
+					if (failure != null && lsn <= failedLsn) throw new IOException(LogUtil.build("Could not flush redo log up to {}", lsn), failure);
+					if (syncing == false) break;
+
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted while waiting for group commit");
+					}
+				}
+
+				//I am the leader of the next batch
+				syncing = true;
+			}
+
+			if (windowNanos > 0) {
+				LockSupport.parkNanos(windowNanos);
+			}
+
+			final long batchLsn = target.getAppendedLsn();
+			IOException error = null;
+
+			try {
+				target.force();
+				syncCount.incrementAndGet();
+			} catch (IOException e) {
+				error = e;
+			}
+
+			synchronized (this) {
+				syncing = false;
+
+				if (error == null) {
+					durableLsn = Math.max(durableLsn, batchLsn);
+				} else {
+					failure = error;
+					failedLsn = batchLsn;
+				}
+
+				notifyAll();
+			}
+
+			if (error != null) throw error;
+		}
+	}
+
+	/**
+	 * @return count of flushes done so far
+	 */
+	public long getSyncCount() {
+		return syncCount.get();
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.redoLog;
+
+import java.util.Objects;
+
+/**
+ * Position in the redo log, all records appended later are after it
+ */
+public class RedoLogPosition {
+
+	private final String logId;
+
+	private final long sequence;
+
+	private final long position;
+
+	public RedoLogPosition(String logId, long sequence, long position) {
+		this.logId = logId;
+		this.sequence = sequence;
+		this.position = position;
+	}
+
+	/**
+	 * @return identity of the redo log, position is meaningless in recreated log
+	 */
+	public String getLogId() {
+		return logId;
+	}
+
+	/**
+	 * @return sequence of the segment
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return offset in the segment
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof RedoLogPosition)) return false;
+		final RedoLogPosition that = (RedoLogPosition) o;
+		return sequence == that.sequence && position == that.position && Objects.equals(logId, that.logId);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(logId, sequence, position);
+	}
+
+	@Override
+	public String toString() {
+		return logId + ":" + sequence + ":" + position;
+	}
+}
@@ -16,87 +16,832 @@
 
 package global.simpleway.pojodb.redoLog;
 
-import java.io.File;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.ClassUtils;
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import global.simpleway.pojodb.PojoDB;
 import global.simpleway.pojodb.format.IFileFormatStrategy;
 import global.simpleway.pojodb.id.IIdGenerator;
 import global.simpleway.pojodb.repository.IWriteCommand;
 import global.simpleway.pojodb.repository.NioFileUtils;
+import global.simpleway.pojodb.storage.Durability;
 import global.simpleway.pojodb.utils.ExceptionUtils;
 import global.simpleway.pojodb.utils.LogUtil;
 
-public class RedoLogService {
+/**
+ * Write ahead log of all transactions, appended sequentially to the segment files in <code>_redo.log</code> folder.
+ * <p>
+ * <ul>
+ * <li>each record is framed: [int body length][int crc32 of body][long segment sequence][byte type][int opId length][opId][payload]</li>
+ * <li>BEGIN record carries serialized write command, END record marks the tx as complete and carries ids of changed items</li>
+ * <li>when the active segment is full, new one is started with CHECKPOINT record of all still incomplete txs, so all older segments
+ * could be recycled</li>
+ * <li>recycled segments are overwritten in place, stale records are recognized by the segment sequence in the frame</li>
+ * <li>segments could be retained longer by {@link #retainFrom(String, long)}, e.g. to replay changes after a checkpoint of persisted index</li>
+ * </ul>
+ * Per operation files of previous versions are still read and ended on start.
+ */
+public class RedoLogService implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(RedoLogService.class);
+
+	public static final long DEFAULT_MAX_SEGMENT_SIZE = 16L * 1024 * 1024;
+
+	private static final String SEGMENT_PREFIX = "wal-";
+	private static final String FREE_SEGMENT_PREFIX = "free-";
+	private static final String SEGMENT_EXTENSION = ".log";
+	private static final String RETAIN_PREFIX = "retain-";
+	private static final String RETAIN_EXTENSION = ".pin";
+	//identity of the log, sequences of recreated log start again from 1
+	private static final String LOG_ID_FILE = "log.id";
+
+	//how many recycled segments are kept for reuse, others are deleted
+	private static final int MAX_FREE_SEGMENTS = 2;
+
+	private static final int HEADER_SIZE = 8;
+	private static final int MIN_BODY_SIZE = 8 + 1 + 4;
+
+	private static final byte BEGIN = 1;
+	private static final byte END = 2;
+	private static final byte CHECKPOINT = 3;
+
+	private static final byte ID_STRING = 1;
+	private static final byte ID_LONG = 2;
+	private static final byte ID_SERIALIZED = 3;
+
+	//numeric op ids of counter generators are compared as numbers
+	private static final Comparator<String> OP_ID_ORDER = Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder());
 
 	private final PojoDB pojoDB;
 
 	private final IFileFormatStrategy fileFormat;
 
+	//per operation files of previous versions were written in the data file format
+	private final IFileFormatStrategy legacyFileFormat;
+
 	private final IIdGenerator<Object,String> idGenerator;
-	
+
+	private final long maxSegmentSize;
+
+	private final Durability durability;
+
+	//all appends, rolling of segments and opening of the log
+	private final Object writeLock = new Object();
+
+	private boolean opened;
+
+	//when not null, nothing could be appended anymore, because the log could contain begin of tx which was reported as failed
+	private IOException failure;
+
+	private String logId;
+
+	private FileChannel channel;
+	private long activeSequence;
+	private long position;
+
+	//position after the last appended record across all segments
+	private long appendedLsn;
+
+	//null when begin of tx is not waiting for the flush
+	private final GroupCommitCoordinator groupCommit;
+
+	//incomplete txs and their serialized commands in order of begin
+	private final Map<String, byte[]> incompleteTxs = new LinkedHashMap<>();
+
+	//encoded ids of items changed by incomplete txs, stored in END record
+	private final Map<String, byte[]> touchedIdsOfTxs = new HashMap<>();
+
+	//incomplete txs from per operation files of previous versions
+	private final Map<String, Path> legacyTxs = new LinkedHashMap<>();
+
+	private final Deque<Path> freeSegments = new ArrayDeque<>();
+
+	//name of the consumer to the first segment it still needs
+	private final Map<String, Long> retainedSegments = new HashMap<>();
+
 	public RedoLogService(PojoDB pojoDB, IFileFormatStrategy fileFormat, IIdGenerator<Object,String> idGenerator) {
+		this(pojoDB, fileFormat, idGenerator, DEFAULT_MAX_SEGMENT_SIZE);
+	}
+
+	public RedoLogService(PojoDB pojoDB, IFileFormatStrategy fileFormat, IIdGenerator<Object,String> idGenerator, long maxSegmentSize) {
+		this(pojoDB, fileFormat, idGenerator, maxSegmentSize, Durability.OS_BUFFERED, 0);
+	}
+
+	/**
+	 * @param durability redo log is not forced at all for {@link Durability#OS_BUFFERED}, otherwise begin of every tx waits for the flush
+	 * @param groupCommitWindowNanos how long the leader of group commit waits for other txs to join the flush, used only for {@link Durability#BATCH}
+	 */
+	public RedoLogService(PojoDB pojoDB, IFileFormatStrategy fileFormat, IIdGenerator<Object,String> idGenerator, long maxSegmentSize, Durability durability,
+			long groupCommitWindowNanos) {
+		this(pojoDB, fileFormat, fileFormat, idGenerator, maxSegmentSize, durability, groupCommitWindowNanos);
+	}
+
+	/**
+	 * @param fileFormat of the write commands in the records
+	 * @param legacyFileFormat of per operation files of previous versions, it's the data file format
+	 */
+	public RedoLogService(PojoDB pojoDB, IFileFormatStrategy fileFormat, IFileFormatStrategy legacyFileFormat, IIdGenerator<Object,String> idGenerator,
+			long maxSegmentSize, Durability durability, long groupCommitWindowNanos) {
 		this.pojoDB = pojoDB;
 		this.fileFormat = fileFormat;
+		this.legacyFileFormat = legacyFileFormat;
 		this.idGenerator = idGenerator;
+		this.maxSegmentSize = maxSegmentSize;
+		this.durability = durability;
+		this.groupCommit = durability.isForceRedoLog() == false ? null : new GroupCommitCoordinator(new GroupCommitCoordinator.ISyncTarget() {
+
+			@Override
+			public long getAppendedLsn() {
+				synchronized (writeLock) {
+					return appendedLsn;
+				}
+			}
+
+			@Override
+			public void force() throws IOException {
+				RedoLogService.this.force();
+			}
+		}, durability == Durability.BATCH ? groupCommitWindowNanos : 0);
 	}
-	
-	public Map<String, IWriteCommand> getAllIncompleteTxs() {
-		final List<File> allIncompleteTx = Arrays.asList(getRedoLogPath().toFile().listFiles());
-		
-		//must ensure order to replay TXes
-		final Map<String, IWriteCommand> mapToProcess = new TreeMap<>();
 
-		ExceptionUtils.iterateAllAndThrowIfAnyException(() -> LogUtil.build("Could not get all incomplete tx"), allIncompleteTx, f -> {
+	/**
+	 * @return true when there are txs to replay, commands of them are not read
+	 */
+	public boolean hasIncompleteTxs() {
+		synchronized (writeLock) {
 			try {
-				final String content = NioFileUtils.read(f.toPath());
+				open();
+			} catch (IOException e) {
+				throw new IllegalStateException(LogUtil.build("Could not open redo log: {}", getRedoLogPath()), e);
+			}
 
-				final IWriteCommand writeCommand = fileFormat.fromString(content, IWriteCommand.class);
-				
-				mapToProcess.put(FilenameUtils.getBaseName(f.getName()), writeCommand);
+			return incompleteTxs.isEmpty() == false || legacyTxs.isEmpty() == false;
+		}
+	}
 
+	public Map<String, IWriteCommand> getAllIncompleteTxs() {
+		final Map<String, byte[]> toProcess = new LinkedHashMap<>();
+		final Map<String, Path> legacyToProcess;
+
+		synchronized (writeLock) {
+			try {
+				open();
 			} catch (IOException e) {
-				throw new IllegalArgumentException(e);
+				throw new IllegalStateException(LogUtil.build("Could not open redo log: {}", getRedoLogPath()), e);
+			}
+
+			toProcess.putAll(incompleteTxs);
+			legacyToProcess = new LinkedHashMap<>(legacyTxs);
+		}
+
+		//must ensure order to replay TXes, older per operation files go first
+		final Map<String, IWriteCommand> mapToProcess = new LinkedHashMap<>();
+
+		ExceptionUtils.iterateAllAndThrowIfAnyException(() -> LogUtil.build("Could not get all incomplete tx"), legacyToProcess.entrySet(), e -> {
+			try {
+				try (InputStream input = new BufferedInputStream(Files.newInputStream(e.getValue()))) {
+					mapToProcess.put(e.getKey(), legacyFileFormat.read(input, IWriteCommand.class));
+				}
+			} catch (IOException e1) {
+				throw new IllegalArgumentException(e1);
+			}
+		});
+
+		ExceptionUtils.iterateAllAndThrowIfAnyException(() -> LogUtil.build("Could not get all incomplete tx"), toProcess.entrySet(), e -> {
+			try {
+				mapToProcess.put(e.getKey(), fileFormat.fromBytes(e.getValue(), IWriteCommand.class));
+			} catch (IOException e1) {
+				throw new IllegalArgumentException(e1);
 			}
 		});
-		
+
 		return mapToProcess;
 	}
 
 	public String txBegin(IWriteCommand command) throws IOException {
-		final String opId = idGenerator.getNextId();
-		final String jsonCommand = fileFormat.toString(command);
+		final byte[] payload = fileFormat.toBytes(command);
+		//encoded before the tx is begun, so unsupported id fails the tx before any data is written
+		final byte[] touchedIds = pojoDB.isPersistentIndexes() ? encodeTouchedIds(command) : null;
+
+		final String opId;
+		final long lsn;
+
+		synchronized (writeLock) {
+			open();
+
+			opId = idGenerator.getNextId();
+
+			append(BEGIN, opId, payload);
+			incompleteTxs.put(opId, payload);
+			if (touchedIds != null) {
+				touchedIdsOfTxs.put(opId, touchedIds);
+			}
 
-		final Path txPath = getTxLogPath(opId);
+			lsn = appendedLsn;
+		}
 
-		synchronized (pojoDB.intern(txPath)) {
-			NioFileUtils.save(txPath, jsonCommand);
+		//begin must be durable before any data file is touched, end could be lost as replay of complete tx does no harm
+		if (groupCommit != null) {
+			try {
+				groupCommit.awaitDurable(lsn);
+			} catch (IOException e) {
+				abort(opId, e);
+				throw e;
+			}
 		}
 
 		return opId;
 	}
 
+	/**
+	 * Tx is not started due to the failed flush of its begin, but the begin could reach the disk with the next flush,
+	 * so it's ended to be never replayed. When even the end could not be appended, the log is failed.
+	 */
+	private void abort(String opId, IOException cause) {
+		synchronized (writeLock) {
+			incompleteTxs.remove(opId);
+			touchedIdsOfTxs.remove(opId);
+
+			try {
+				append(END, opId, new byte[0]);
+			} catch (IOException e) {
+				cause.addSuppressed(e);
+				failure = cause;
+				logger.error("Could not end aborted tx {}, redo log {} is failed", opId, getRedoLogPath(), e);
+			}
+		}
+	}
+
 	public void txEnd(String opId) throws IOException {
-		final Path txPath = getTxLogPath(opId);
+		txEnd(opId, null);
+	}
+
+	/**
+	 * @param command of the tx, ids of its items are stored in the END record
+	 */
+	public void txEnd(String opId, IWriteCommand command) throws IOException {
+		synchronized (writeLock) {
+			open();
+
+			//touched ids are needed only for replay of changes to persisted indexes, replayed txs have them not encoded yet
+			final byte[] encoded = touchedIdsOfTxs.remove(opId);
+			final byte[] touchedIds = encoded != null ? encoded : pojoDB.isPersistentIndexes() ? encodeTouchedIds(command) : new byte[0];
+
+			final Path legacyPath = legacyTxs.remove(opId);
+			if (legacyPath != null) {
+				NioFileUtils.delete(legacyPath);
+				return;
+			}
+
+			append(END, opId, touchedIds);
+			incompleteTxs.remove(opId);
+
+			if (position >= maxSegmentSize) {
+				checkpoint();
+			}
+		}
+	}
+
+	/**
+	 * Starts new segment with all incomplete txs, so older segments are not needed anymore
+	 *
+	 * @throws IOException
+	 */
+	public void checkpoint() throws IOException {
+		synchronized (writeLock) {
+			open();
+
+			startSegment(activeSequence + 1);
+		}
+	}
+
+	/**
+	 * @return position after the last appended record
+	 */
+	public RedoLogPosition getPosition() throws IOException {
+		synchronized (writeLock) {
+			open();
+
+			return new RedoLogPosition(logId, activeSequence, position);
+		}
+	}
+
+	/**
+	 * Segments from the sequence will not be recycled until the retention is moved or released, survives restart
+	 *
+	 * @param name of the consumer of the log, must be usable as a file name
+	 * @param sequence of the first segment needed
+	 */
+	public void retainFrom(String name, long sequence) throws IOException {
+		synchronized (writeLock) {
+			open();
+
+			final Path path = getRetainPath(name);
+			final Path newPath = path.resolveSibling(path.getFileName() + ".new");
+
+			NioFileUtils.save(newPath, "" + sequence, durability);
+			NioFileUtils.rename(newPath, path, durability);
 
-		synchronized (pojoDB.intern(txPath)) {
-			NioFileUtils.delete(txPath);
+			retainedSegments.put(name, sequence);
 		}
 	}
 
-	private Path getTxLogPath(String opId) {
-		return getRedoLogPath().resolve(opId + fileFormat.getFileExtension());
+	public void release(String name) throws IOException {
+		synchronized (writeLock) {
+			open();
+
+			//index could be removed before its first checkpoint, so nothing is retained yet
+			NioFileUtils.deleteIfExists(getRetainPath(name), durability);
+			retainedSegments.remove(name);
+		}
+	}
+
+	/**
+	 * Reads ids of items changed by all txs ended after the position
+	 *
+	 * @param from position, usually taken by {@link #getPosition()} earlier
+	 * @param consumer of the class of the item (or of its repository) and the id
+	 * @return false when the log does not contain all records after the position anymore
+	 */
+	public boolean forEachTouchedIdSince(RedoLogPosition from, BiConsumer<Class<?>, Object> consumer) throws IOException {
+		synchronized (writeLock) {
+			open();
+
+			if (logId.equals(from.getLogId()) == false) return false;
+			if (from.getSequence() > activeSequence || Files.exists(getSegmentPath(from.getSequence())) == false) return false;
+
+			for (long sequence = from.getSequence(); sequence <= activeSequence; sequence++) {
+				final Path path = getSegmentPath(sequence);
+				if (Files.exists(path) == false) return false;
+
+				try (FileChannel segment = FileChannel.open(path, StandardOpenOption.READ)) {
+					final long size = segment.size();
+					long offset = sequence == from.getSequence() ? from.getPosition() : 0;
+
+					while (offset < size) {
+						final Record record = readRecord(segment, sequence, offset, size);
+						if (record == null) break;
+
+						if (record.type == END) {
+							decodeTouchedIds(record.payload, consumer);
+						}
+
+						offset += record.frameLength;
+					}
+				}
+			}
+
+			return true;
+		}
+	}
+
+	private Path getRetainPath(String name) {
+		return getRedoLogPath().resolve(RETAIN_PREFIX + name + RETAIN_EXTENSION);
 	}
 
 	private Path getRedoLogPath() {
 		return pojoDB.getStoragePath().resolve("_redo.log");
 	}
-	
+
+	private Path getSegmentPath(long sequence) {
+		return getRedoLogPath().resolve(SEGMENT_PREFIX + String.format("%010d", sequence) + SEGMENT_EXTENSION);
+	}
+
+	/**
+	 * Opens log lazily, so just creating instance of {@link PojoDB} does not touch the file system
+	 */
+	private void open() throws IOException {
+		if (opened) return;
+
+		Files.createDirectories(getRedoLogPath());
+
+		final Path logIdPath = getRedoLogPath().resolve(LOG_ID_FILE);
+		if (NioFileUtils.exists(logIdPath)) {
+			logId = NioFileUtils.read(logIdPath).trim();
+		} else {
+			logId = UUID.randomUUID().toString();
+			NioFileUtils.save(logIdPath, logId, durability);
+		}
+
+		final TreeMap<Long, Path> segments = new TreeMap<>();
+		final List<Path> legacyFiles = new ArrayList<>();
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(getRedoLogPath())) {
+			for (Path path : stream) {
+				final String fileName = path.getFileName().toString();
+
+				if (fileName.startsWith(FREE_SEGMENT_PREFIX)) {
+					freeSegments.add(path);
+				} else if (fileName.startsWith(RETAIN_PREFIX) && fileName.endsWith(RETAIN_EXTENSION)) {
+					final String name = fileName.substring(RETAIN_PREFIX.length(), fileName.length() - RETAIN_EXTENSION.length());
+					retainedSegments.put(name, Long.parseLong(NioFileUtils.read(path).trim()));
+				} else if (fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_EXTENSION)) {
+					segments.put(Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_EXTENSION.length())), path);
+				} else if (fileName.endsWith(legacyFileFormat.getFileExtension())) {
+					legacyFiles.add(path);
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException(LogUtil.build("Unknown segment in redo log: {}", getRedoLogPath()), e);
+		}
+
+		legacyFiles.stream()
+				.sorted()
+				.forEach(p -> legacyTxs.put(FilenameUtils.getBaseName(p.getFileName().toString()), p));
+
+		String lastOpId = legacyTxs.keySet().stream().max(OP_ID_ORDER).orElse(null);
+
+		for (Map.Entry<Long, Path> segment : segments.entrySet()) {
+			final String lastInSegment = scan(segment.getKey(), segment.getValue());
+			if (lastInSegment != null) {
+				lastOpId = max(lastOpId, lastInSegment);
+			}
+		}
+
+		//do not reuse op ids of incomplete txs
+		idGenerator.setLastId(lastOpId);
+
+		opened = true;
+
+		startSegment(segments.isEmpty() ? 1 : segments.lastKey() + 1);
+
+		if (incompleteTxs.isEmpty() == false || legacyTxs.isEmpty() == false) {
+			logger.info("Redo log {} has {} incomplete txs", getRedoLogPath(), incompleteTxs.size() + legacyTxs.size());
+		}
+	}
+
+	/**
+	 * Reads all valid records of the segment to the state of incomplete txs
+	 *
+	 * @return highest opId in segment, including incomplete txs of checkpoint whose begins could be in recycled segments
+	 */
+	private String scan(long sequence, Path path) throws IOException {
+		String lastOpId = null;
+
+		try (FileChannel segment = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long size = segment.size();
+			long offset = 0;
+
+			while (offset < size) {
+				final Record record = readRecord(segment, sequence, offset, size);
+				//end of segment, torn write or stale record of recycled segment
+				if (record == null) break;
+
+				if (record.type == BEGIN) {
+					incompleteTxs.put(record.opId, record.payload);
+					lastOpId = max(lastOpId, record.opId);
+				} else if (record.type == END) {
+					incompleteTxs.remove(record.opId);
+					lastOpId = max(lastOpId, record.opId);
+				} else {
+					final Map<String, byte[]> checkpointed = decodeCheckpoint(record.payload);
+
+					incompleteTxs.clear();
+					incompleteTxs.putAll(checkpointed);
+					for (String opId : checkpointed.keySet()) {
+						lastOpId = max(lastOpId, opId);
+					}
+				}
+
+				offset += record.frameLength;
+			}
+		}
+
+		return lastOpId;
+	}
+
+	private static String max(String opId, String other) {
+		if (opId == null) return other;
+
+		return OP_ID_ORDER.compare(other, opId) > 0 ? other : opId;
+	}
+
+	private void startSegment(long sequence) throws IOException {
+		final Path path = getSegmentPath(sequence);
+
+		//recycle previously used segment, stale records would be ignored due to its sequence
+		final Path free = freeSegments.poll();
+		if (free != null) {
+			Files.move(free, path, StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		final FileChannel previous = channel;
+
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		activeSequence = sequence;
+		position = 0;
+
+		append(CHECKPOINT, "", encodeCheckpoint(incompleteTxs));
+
+		if (previous != null) {
+			//records waiting for group commit in previous segment are flushed here
+			if (groupCommit != null) {
+				previous.force(durability.isForceMetadata());
+			}
+			previous.close();
+		}
+
+		//older segments could be recycled only when checkpoint is on the disk
+		if (groupCommit != null) {
+			channel.force(durability.isForceMetadata());
+		}
+		NioFileUtils.forceDirectory(getRedoLogPath(), durability);
+
+		retireOlderSegments(sequence);
+	}
+
+	/**
+	 * Forces the active segment for group commit, could be overridden to simulate failures of the disk
+	 */
+	protected void force() throws IOException {
+		final FileChannel active;
+		synchronized (writeLock) {
+			active = channel;
+		}
+
+		if (active == null) return;
+
+		try {
+			active.force(durability.isForceMetadata());
+		} catch (ClosedChannelException e) {
+			//segment was sealed meanwhile and flushed during rolling to the next one
+			logger.trace("Redo log segment already closed", e);
+		}
+	}
+
+	private void retireOlderSegments(long activeSequence) throws IOException {
+		final long firstRetained = retainedSegments.values().stream().min(Long::compare).orElse(activeSequence);
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(getRedoLogPath(), SEGMENT_PREFIX + "*" + SEGMENT_EXTENSION)) {
+			for (Path path : stream) {
+				if (path.equals(getSegmentPath(activeSequence))) continue;
+
+				final String fileName = path.getFileName().toString();
+				final long sequence = Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_EXTENSION.length()));
+				if (sequence >= firstRetained) continue;
+
+				if (freeSegments.size() < MAX_FREE_SEGMENTS) {
+					final Path free = getRedoLogPath().resolve(FREE_SEGMENT_PREFIX + path.getFileName());
+					Files.move(path, free, StandardCopyOption.ATOMIC_MOVE);
+					freeSegments.add(free);
+				} else {
+					Files.delete(path);
+				}
+			}
+		}
+	}
+
+	private void append(byte type, String opId, byte[] payload) throws IOException {
+		if (failure != null) throw new IOException(LogUtil.build("Redo log {} is failed", getRedoLogPath()), failure);
+
+		final byte[] opIdBytes = opId.getBytes(StandardCharsets.UTF_8);
+
+		final ByteBuffer body = ByteBuffer.allocate(MIN_BODY_SIZE + opIdBytes.length + payload.length);
+		body.putLong(activeSequence);
+		body.put(type);
+		body.putInt(opIdBytes.length);
+		body.put(opIdBytes);
+		body.put(payload);
+		body.flip();
+
+		final CRC32 crc = new CRC32();
+		crc.update(body.array());
+
+		final ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + body.remaining());
+		frame.putInt(body.remaining());
+		frame.putInt((int) crc.getValue());
+		frame.put(body);
+		frame.flip();
+
+		final int length = frame.remaining();
+		while (frame.hasRemaining()) {
+			channel.write(frame, position + frame.position());
+		}
+		position += length;
+		appendedLsn += length;
+	}
+
+	/**
+	 * @return record or null when the frame is incomplete, corrupted or belongs to the previous use of recycled segment
+	 */
+	private static Record readRecord(FileChannel segment, long sequence, long offset, long size) throws IOException {
+		if (size - offset < HEADER_SIZE) return null;
+
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(segment, header, offset);
+		header.flip();
+
+		final int bodyLength = header.getInt();
+		final int checksum = header.getInt();
+
+		if (bodyLength < MIN_BODY_SIZE || bodyLength > size - offset - HEADER_SIZE) return null;
+
+		final ByteBuffer body = ByteBuffer.allocate(bodyLength);
+		readFully(segment, body, offset + HEADER_SIZE);
+		body.flip();
+
+		final CRC32 crc = new CRC32();
+		crc.update(body.array());
+		if ((int) crc.getValue() != checksum) return null;
+
+		if (body.getLong() != sequence) return null;
+
+		final byte type = body.get();
+		final int opIdLength = body.getInt();
+		if (type < BEGIN || type > CHECKPOINT || opIdLength < 0 || opIdLength > body.remaining()) return null;
+
+		final byte[] opId = new byte[opIdLength];
+		body.get(opId);
+		final byte[] payload = new byte[body.remaining()];
+		body.get(payload);
+
+		return new Record(type, new String(opId, StandardCharsets.UTF_8), payload, HEADER_SIZE + bodyLength);
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, offset + buffer.position());
+			if (read < 0) throw new IOException("Unexpected end of redo log segment");
+		}
+	}
+
+	private static byte[] encodeCheckpoint(Map<String, byte[]> txs) {
+		int size = 4;
+		for (Map.Entry<String, byte[]> e : txs.entrySet()) {
+			size += 4 + e.getKey().getBytes(StandardCharsets.UTF_8).length + 4 + e.getValue().length;
+		}
+
+		final ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putInt(txs.size());
+		txs.forEach((opId, payload) -> {
+			final byte[] opIdBytes = opId.getBytes(StandardCharsets.UTF_8);
+			buffer.putInt(opIdBytes.length);
+			buffer.put(opIdBytes);
+			buffer.putInt(payload.length);
+			buffer.put(payload);
+		});
+
+		return buffer.array();
+	}
+
+	/**
+	 * [int count] and for every id [class name][byte type][id as String, long or java serialized bytes]
+	 */
+	private static byte[] encodeTouchedIds(IWriteCommand command) throws IOException {
+		if (command == null) return new byte[0];
+
+		final List<Pair<Class<?>, Object>> touched = new ArrayList<>();
+		command.forEachTouchedId((itemClass, id) -> touched.add(Pair.of(itemClass, id)));
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream output = new DataOutputStream(bytes)) {
+			output.writeInt(touched.size());
+
+			for (Pair<Class<?>, Object> pair : touched) {
+				final Object id = pair.getRight();
+
+				output.writeUTF(pair.getLeft().getName());
+
+				if (id instanceof String) {
+					output.writeByte(ID_STRING);
+					output.writeUTF((String) id);
+				} else if (id instanceof Long) {
+					output.writeByte(ID_LONG);
+					output.writeLong((Long) id);
+				} else {
+					if (id instanceof Serializable == false) {
+						throw new IOException(LogUtil.build("Id {} of {} is not serializable, it's required by persistent indexes", id, pair.getLeft()));
+					}
+
+					final byte[] serialized = SerializationUtils.serialize((Serializable) id);
+					output.writeByte(ID_SERIALIZED);
+					output.writeInt(serialized.length);
+					output.write(serialized);
+				}
+			}
+		}
+
+		return bytes.toByteArray();
+	}
+
+	private static void decodeTouchedIds(byte[] data, BiConsumer<Class<?>, Object> consumer) throws IOException {
+		//END of tx without command
+		if (data.length == 0) return;
+
+		try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(data))) {
+			final int count = input.readInt();
+
+			for (int i = 0; i < count; i++) {
+				final String className = input.readUTF();
+				final byte type = input.readByte();
+
+				final Object id;
+				if (type == ID_STRING) {
+					id = input.readUTF();
+				} else if (type == ID_LONG) {
+					id = input.readLong();
+				} else {
+					final byte[] serialized = new byte[input.readInt()];
+					input.readFully(serialized);
+					id = SerializationUtils.deserialize(serialized);
+				}
+
+				try {
+					consumer.accept(ClassUtils.getClass(className), id);
+				} catch (ClassNotFoundException e) {
+					logger.warn("Unknown class {} of changed item {} in redo log, skipping", className, id);
+				}
+			}
+		}
+	}
+
+	private static Map<String, byte[]> decodeCheckpoint(byte[] data) {
+		final ByteBuffer buffer = ByteBuffer.wrap(data);
+		final Map<String, byte[]> txs = new LinkedHashMap<>();
+
+		final int count = buffer.getInt();
+		for (int i = 0; i < count; i++) {
+			final byte[] opId = new byte[buffer.getInt()];
+			buffer.get(opId);
+			final byte[] payload = new byte[buffer.getInt()];
+			buffer.get(payload);
+
+			txs.put(new String(opId, StandardCharsets.UTF_8), payload);
+		}
+
+		return txs;
+	}
+
+	/**
+	 * @return count of flushes done by group commit so far
+	 */
+	public long getGroupCommitSyncCount() {
+		return groupCommit == null ? 0 : groupCommit.getSyncCount();
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (writeLock) {
+			if (channel != null) {
+				channel.close();
+				channel = null;
+			}
+			opened = false;
+			logId = null;
+			incompleteTxs.clear();
+			legacyTxs.clear();
+			freeSegments.clear();
+			retainedSegments.clear();
+		}
+	}
+
+	private static final class Record {
+
+		private final byte type;
+		private final String opId;
+		private final byte[] payload;
+		private final int frameLength;
+
+		private Record(byte type, String opId, byte[] payload, int frameLength) {
+			this.type = type;
+			this.opId = opId;
+			this.payload = payload;
+			this.frameLength = frameLength;
+		}
+	}
 }
@@ -26,6 +26,11 @@ public abstract class AWriteCommand implements IWriteCommand {
 
 	private static final long serialVersionUID = 550899279105717195L;
 
+	@Override
+	public void prepare(Repository<?, ?> repository) throws IOException {
+		//nothing to prepare
+	}
+
 	@Override
 	public String begin(RedoLogService redoLogService) throws IOException {
 		return redoLogService.txBegin(this);
@@ -33,7 +38,7 @@ public abstract class AWriteCommand implements IWriteCommand {
 
 	@Override
 	public void end(RedoLogService redoLogService, String opId) throws IOException {
-		redoLogService.txEnd(opId);
+		redoLogService.txEnd(opId, this);
 	}
 	
 
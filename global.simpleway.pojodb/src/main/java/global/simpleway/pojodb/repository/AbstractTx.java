@@ -80,6 +80,9 @@ public abstract class AbstractTx implements Closeable {
 		if (allFilesBackedUp) return;
 
 		try {
+			//0. serialize items once for both redo log and storage
+			writeCommand.prepare(repository);
+
 			//1. mark begin of new operation
 			final String opId = writeCommand.begin(repository.getRedoLogService());
 			context.setOpId(opId);
@@ -46,6 +46,18 @@ public class CompositeWriteCommand<T> extends AWriteCommand {
 		return new ArrayList<>(classesAndCommands);
 	}
 
+	@Override
+	public void prepare(Repository<?, ?> anyRepository) throws IOException {
+		delegateWork(() -> LogUtil.build("Could not prepare write command: {}", this), anyRepository, (repository, writeCommand) -> {
+			try {
+				//delegate work to the underlying repository for correct storage and file format strategy
+				writeCommand.prepare(repository);
+			} catch (IOException e) {
+				throw new IllegalArgumentException(e);
+			}
+		});
+	}
+
 	@Override
 	public void backup(Repository<?, ?> anyRepository, TxContext context) throws IOException {
 		delegateWork(() -> LogUtil.build("Could not backup files for write command: {}", this), anyRepository, (repository, writeCommand) -> {
@@ -94,6 +106,12 @@ public class CompositeWriteCommand<T> extends AWriteCommand {
 		});
 	}
 
+	@Override
+	public void forEachTouchedId(BiConsumer<Class<?>, Object> consumer) {
+		//items are reported with the class of their repository
+		classesAndCommands.forEach(pair -> pair.getRight().forEachTouchedId((itemClass, id) -> consumer.accept(pair.getLeft(), id)));
+	}
+
 	private void delegateWork(Supplier<String> logSupplier, Repository<?, ?> anyRepository, BiConsumer<Repository<?, ?>, IWriteCommand> commandConsumer) throws IOException {
 		try {
 			ExceptionUtils.iterateAllAndThrowIfAnyException(logSupplier, classesAndCommands, pair -> {
@@ -19,6 +19,7 @@ package global.simpleway.pojodb.repository;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -62,6 +63,11 @@ public class DeleteWriteCommand<T,ID> extends ASingleIdWriteCommand<T,ID> {
 		repository.clearBackup_single(this, context);
 	}
 
+	@Override
+	public void forEachTouchedId(BiConsumer<Class<?>, Object> consumer) {
+		consumer.accept(itemClass, getId());
+	}
+
 	public static <T, ID> List<IWriteCommand> create(List<T> items, Function<T, ID> idSupplier) {
 		if (items == null) return Collections.emptyList();
 
@@ -18,6 +18,7 @@ package global.simpleway.pojodb.repository;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.function.BiConsumer;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
@@ -33,6 +34,14 @@ import global.simpleway.pojodb.redoLog.RedoLogService;
 @JsonPropertyOrder(alphabetic = true)
 public interface IWriteCommand extends Serializable { 
 	
+	/**
+	 * Prepares the command before it's written to the redo log, e.g. serializes items in the file format of the repository
+	 *
+	 * @param repository of the command, composite commands find the repositories of their commands
+	 * @throws IOException
+	 */
+	public void prepare(Repository<?, ?> repository) throws IOException;
+
 	public String begin(RedoLogService redoLogService) throws IOException;
 	
 	public void backup(Repository<?, ?> repository, TxContext context) throws IOException;
@@ -44,5 +53,12 @@ public interface IWriteCommand extends Serializable {
 	public void clearBackup(Repository<?, ?> repository, TxContext context) throws IOException;
 	
 	public void end(RedoLogService redoLogService, String opId) throws IOException;
+
+	/**
+	 * Reports ids of all items changed by the command
+	 *
+	 * @param consumer of the class of the item (or of its repository) and the id
+	 */
+	public void forEachTouchedId(BiConsumer<Class<?>, Object> consumer);
 	
 }
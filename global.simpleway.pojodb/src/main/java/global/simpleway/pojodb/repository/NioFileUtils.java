@@ -17,19 +17,26 @@
 package global.simpleway.pojodb.repository;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.util.stream.Collectors;
+import java.nio.file.StandardOpenOption;
 
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.SystemUtils;
+
+import global.simpleway.pojodb.storage.Durability;
 
 public class NioFileUtils {
 
 	public static String read(Path path) throws IOException {
-		return Files.readAllLines(path).stream()
-				.collect(Collectors.joining());
+		return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+	}
+
+	public static byte[] readBytes(Path path) throws IOException {
+		return Files.readAllBytes(path);
 	}
 
 	public static boolean exists(Path path) {
@@ -37,18 +44,85 @@ public class NioFileUtils {
 	}
 
 	public static void save(Path path, String data) throws IOException {
-		FileUtils.writeStringToFile(path.toFile(), data, StandardCharsets.UTF_8);
+		save(path, data, Durability.OS_BUFFERED);
+	}
+
+	public static void save(Path path, String data, Durability durability) throws IOException {
+		save(path, StandardCharsets.UTF_8.encode(data), durability);
+	}
+
+	public static void save(Path path, byte[] data, Durability durability) throws IOException {
+		save(path, ByteBuffer.wrap(data), durability);
+	}
+
+	private static void save(Path path, ByteBuffer buffer, Durability durability) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+
+			durability.force(channel);
+		}
 	}
 
 	public static void rename(Path oldPath, Path newPath) throws IOException {
+		rename(oldPath, newPath, Durability.OS_BUFFERED);
+	}
+
+	public static void rename(Path oldPath, Path newPath, Durability durability) throws IOException {
 		Files.move(oldPath, newPath, StandardCopyOption.ATOMIC_MOVE);
+
+		forceDirectory(newPath.getParent(), durability);
 	}
 
 	public static void copy(Path oldPath, Path newPath) throws IOException {
+		copy(oldPath, newPath, Durability.OS_BUFFERED);
+	}
+
+	public static void copy(Path oldPath, Path newPath, Durability durability) throws IOException {
 		Files.copy(oldPath, newPath, StandardCopyOption.REPLACE_EXISTING);
+
+		if (durability.isForceFiles()) {
+			try (FileChannel channel = FileChannel.open(newPath, StandardOpenOption.WRITE)) {
+				durability.force(channel);
+			}
+		}
 	}
 
 	public static void delete(Path path) throws IOException {
+		delete(path, Durability.OS_BUFFERED);
+	}
+
+	public static void delete(Path path, Durability durability) throws IOException {
 		Files.delete(path);
+
+		forceDirectory(path.getParent(), durability);
+	}
+
+	/**
+	 * @return true when the file existed and was deleted, directory is forced only then
+	 */
+	public static boolean deleteIfExists(Path path, Durability durability) throws IOException {
+		final boolean deleted = Files.deleteIfExists(path);
+		if (deleted) {
+			forceDirectory(path.getParent(), durability);
+		}
+		return deleted;
+	}
+
+	/**
+	 * Makes created, renamed or deleted directory entries durable. Windows does not support opening of the directory,
+	 * there the entries are durable with the file itself.
+	 *
+	 * @param directory
+	 * @param durability
+	 * @throws IOException
+	 */
+	public static void forceDirectory(Path directory, Durability durability) throws IOException {
+		if (durability.isForceDirectories() == false || directory == null || SystemUtils.IS_OS_WINDOWS) return;
+
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
 	}
 }
@@ -16,13 +16,27 @@
 
 package global.simpleway.pojodb.repository;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import org.slf4j.Logger;
@@ -31,14 +45,19 @@ import org.slf4j.LoggerFactory;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 
+import global.simpleway.pojodb.index.AIndex;
+import global.simpleway.pojodb.index.HashIndex;
+import global.simpleway.pojodb.index.IndexManager;
+import global.simpleway.pojodb.index.RangeIndex;
 import global.simpleway.pojodb.listener.IPojoDBListener;
+import global.simpleway.pojodb.redoLog.RedoLogPosition;
 import global.simpleway.pojodb.redoLog.RedoLogService;
 import global.simpleway.pojodb.storage.IStorageBackend;
 import global.simpleway.pojodb.utils.LogUtil;
 import global.simpleway.pojodb.PojoDB;
 import global.simpleway.pojodb.id.IIdGenerator;
 
-public class Repository<T, ID> {
+public class Repository<T, ID> implements Closeable {
 
 	private static final Logger logger = LoggerFactory.getLogger(Repository.class);
 
@@ -55,6 +74,17 @@ public class Repository<T, ID> {
 
 	private final List<IPojoDBListener<T>> listeners = new CopyOnWriteArrayList<>();
 
+	private final IndexManager<T, ID> indexManager = new IndexManager<>();
+
+	//pool of parallel reads reused by calls with the same parallelism, guarded by this
+	private ForkJoinPool readPool;
+
+	private boolean closed;
+
+	private static final String INDEX_FOLDER = "_index";
+	private static final String INDEX_EXTENSION = ".idx";
+	private static final String INDEX_RETAIN_PREFIX = "index-";
+
 	public Repository(Class<T> typeClass, Function<T, ID> idSupplier, BiConsumer<T, ID> idConsumer, PojoDB storage, IStorageBackend<ID> storageStrategy,
 			IIdGenerator<T, ID> idGenerator) {
 
@@ -65,7 +95,10 @@ public class Repository<T, ID> {
 		this.idSupplier = idSupplier;
 		this.idConsumer = idConsumer;
 
-		idGenerator.setLastId(getLastId());
+		if (idGenerator.isLastIdRequired()) {
+			//ids only, items are not deserialized
+			idGenerator.setLastIds(backend.findAllIds());
+		}
 	}
 
 	public RedoLogService getRedoLogService() {
@@ -98,14 +131,195 @@ public class Repository<T, ID> {
 		return typeClass;
 	}
 
-	private ID getLastId() {
-		final List<ID> allIds = findAll().stream()
-				.map(idSupplier)
-				.sorted()
+	/**
+	 * Adds equality index of items, it's built from all stored items now and then maintained on every commit
+	 *
+	 * @param name of the index
+	 * @param keyExtractor key of the item, null means item is not indexed
+	 */
+	public <K> void addIndex(String name, Function<T, K> keyExtractor) {
+		addIndex(new HashIndex<>(name, keyExtractor));
+	}
+
+	public void addIndex(AIndex<T, ID, ?> index) {
+		Preconditions.checkArgument(index != null, "Index could not be null!");
+
+		indexManager.register(index);
+		try {
+			if (pojoDB.isPersistentIndexes() && restoreIndex(index)) return;
+
+			try (Stream<ID> ids = backend.streamAllIds()) {
+				ids.forEach(id -> {
+					final T item = findOne(id);
+					if (item != null) {
+						indexManager.load(index, id, item);
+					}
+				});
+			}
+		} finally {
+			indexManager.finishBuild(index);
+		}
+	}
+
+	/**
+	 * Loads the index from its checkpoint and reindexes only items changed after it according to the redo log
+	 *
+	 * @return false when the index must be built from all items
+	 */
+	private boolean restoreIndex(AIndex<T, ID, ?> index) {
+		return indexManager.restore(index, getIndexPath(index), getRedoLogService(), typeClass, this::findOne) != null;
+	}
+
+	/**
+	 * Persists all indexes, see {@link PojoDB.PojoDBBuilder#withPersistentIndexes()}. Redo log segments needed for replay
+	 * of changes after the checkpoint are kept until the next checkpoint, so checkpoints must be made regularly,
+	 * otherwise the redo log grows without bound. Index which is not used anymore must be removed by {@link #removeIndex(String)}.
+	 */
+	public void checkpointIndexes() {
+		for (AIndex<T, ID, ?> index : indexManager.getIndexes()) {
+			try {
+				final RedoLogPosition position = indexManager.checkpoint(index, getIndexPath(index), getRedoLogService(), pojoDB.getDurability());
+
+				getRedoLogService().retainFrom(getIndexRetainName(index.getName()), position.getSequence());
+			} catch (IOException e) {
+				throw new IllegalArgumentException(LogUtil.build("Could not checkpoint index: {} of {}", index.getName(), typeClass), e);
+			}
+		}
+	}
+
+	private Path getIndexPath(AIndex<T, ID, ?> index) {
+		return getIndexPath(index.getName());
+	}
+
+	private Path getIndexPath(String name) {
+		return pojoDB.getStoragePath().resolve(INDEX_FOLDER).resolve(typeClass.getName()).resolve(name + INDEX_EXTENSION);
+	}
+
+	private String getIndexRetainName(String name) {
+		return INDEX_RETAIN_PREFIX + typeClass.getName() + "." + name;
+	}
+
+	/**
+	 * Removes the index together with its checkpoint, so redo log segments are not retained for it anymore
+	 */
+	public boolean removeIndex(String name) {
+		final boolean removed = indexManager.remove(name);
+
+		final Path path = getIndexPath(name);
+		if (pojoDB.isPersistentIndexes() || Files.exists(path)) {
+			try {
+				getRedoLogService().release(getIndexRetainName(name));
+				NioFileUtils.deleteIfExists(path, pojoDB.getDurability());
+			} catch (IOException e) {
+				throw new IllegalArgumentException(LogUtil.build("Could not remove checkpoint of index: {} of {}", name, typeClass), e);
+			}
+		}
+
+		return removed;
+	}
+
+	@VisibleForTesting
+	public IndexManager<T, ID> getIndexManager() {
+		return indexManager;
+	}
+
+	/**
+	 * @param name of the index
+	 * @param key to look for
+	 * @return committed items with the key
+	 */
+	public <K> List<T> findByIndex(String name, K key) {
+		Preconditions.checkArgument(name != null, "Index name could not be null!");
+
+		final AIndex<T, ID, K> index = indexManager.getIndex(name);
+
+		return toItems(index.find(key).stream())
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Adds ordered index of items by natural order of the key, it's built from all stored items now and then maintained on every commit
+	 *
+	 * @param name of the index
+	 * @param keyExtractor key of the item, null means item is not indexed
+	 */
+	public <K extends Comparable<? super K>> void addRangeIndex(String name, Function<T, K> keyExtractor) {
+		addIndex(RangeIndex.naturalOrder(name, keyExtractor));
+	}
+
+	/**
+	 * @param name of the range index
+	 * @param from inclusive, null for no lower bound
+	 * @param to exclusive, null for no upper bound
+	 * @return committed items with keys in the range, ordered by the key
+	 */
+	public <K> List<T> findRange(String name, K from, K to) {
+		final RangeIndex<T, ID, K> index = getRangeIndex(name);
+
+		return toItems(index.range(from, to, true))
 				.collect(Collectors.toList());
+	}
+
+	/**
+	 * @param name of the range index with String keys
+	 * @param prefix of the key
+	 * @return committed items whose key starts with prefix, ordered by the key
+	 */
+	public List<T> findByPrefix(String name, String prefix) {
+		Preconditions.checkArgument(prefix != null, "Prefix could not be null!");
+
+		return findRange(name, prefix, prefix + Character.MAX_VALUE);
+	}
+
+	/**
+	 * @param name of the range index
+	 * @param n max count of items
+	 * @return first n committed items with the lowest keys
+	 */
+	public List<T> findTopN(String name, int n) {
+		return findTopN(name, n, true);
+	}
+
+	/**
+	 * @param name of the range index
+	 * @param n max count of items
+	 * @param ascending true for items with the lowest keys, false for the highest ones
+	 * @return first n committed items in the order of the index
+	 */
+	public List<T> findTopN(String name, int n, boolean ascending) {
+		Preconditions.checkArgument(n >= 0, "Count could not be negative!");
+
+		try (Stream<T> items = streamByIndex(name, ascending)) {
+			return items.limit(n)
+					.collect(Collectors.toList());
+		}
+	}
 
-		if (allIds == null || allIds.isEmpty()) return null;
-		return allIds.get(allIds.size() - 1);
+	/**
+	 * Items are read one by one when the stream is consumed
+	 *
+	 * @param name of the range index
+	 * @param ascending order of the keys
+	 * @return all indexed committed items in the order of the index
+	 */
+	public Stream<T> streamByIndex(String name, boolean ascending) {
+		final RangeIndex<T, ID, Object> index = getRangeIndex(name);
+
+		return toItems(index.all(ascending));
+	}
+
+	private <K> RangeIndex<T, ID, K> getRangeIndex(String name) {
+		Preconditions.checkArgument(name != null, "Index name could not be null!");
+
+		final AIndex<T, ID, K> index = indexManager.getIndex(name);
+		if (index instanceof RangeIndex == false) throw new IllegalArgumentException(LogUtil.build("Index with name: {} is not a range index.", name));
+
+		return (RangeIndex<T, ID, K>) index;
+	}
+
+	private Stream<T> toItems(Stream<ID> ids) {
+		return ids.map(this::findOne)
+				.filter(Objects::nonNull);
 	}
 
 	public boolean addListener(IPojoDBListener<T> listener) {
@@ -124,24 +338,147 @@ public class Repository<T, ID> {
 				.collect(Collectors.toList());
 	}
 
+	/**
+	 * Items are read one by one when the stream is consumed, so whole collection does not have to fit into the memory.
+	 * Stream must be closed to release file handles of the backend, order of items is not defined.
+	 *
+	 * @return
+	 */
+	public Stream<T> stream() {
+		return backend.streamAllIds()
+				.map(this::findOne)
+				.filter(Objects::nonNull);
+	}
+
+	/**
+	 * Lazy iterator over all items, file handles of the backend are released when the last item is reached.
+	 * Use {@link #stream()} with try-with-resources when iteration could stop earlier.
+	 *
+	 * @return
+	 */
+	public Iterator<T> iterator() {
+		final Stream<T> stream = stream();
+		final Iterator<T> iterator = stream.iterator();
+
+		return new Iterator<T>() {
+
+			@Override
+			public boolean hasNext() {
+				final boolean hasNext = iterator.hasNext();
+				if (hasNext == false) {
+					stream.close();
+				}
+				return hasNext;
+			}
+
+			@Override
+			public T next() {
+				return iterator.next();
+			}
+		};
+	}
+
+	/**
+	 * @param ids to read
+	 * @return existing items in the order of the given ids, missing are skipped and duplicate ids are returned once
+	 */
 	public List<T> findAllById(List<ID> ids) {
+		return findAllById(ids, id -> {
+			//no code
+		});
+	}
+
+	/**
+	 * @param ids to read
+	 * @param missingIds called once for every id which does not exist or could not be read
+	 * @return existing items in the order of the given ids, duplicate ids are returned once
+	 */
+	public List<T> findAllById(List<ID> ids, Consumer<ID> missingIds) {
+		return findAllById(ids, 1, missingIds);
+	}
+
+	/**
+	 * Reads only the requested items, every one once and in order of their file names, so the reads are friendly to the file system.
+	 *
+	 * @param ids to read
+	 * @param parallelism count of threads reading the items, 1 reads in the calling thread
+	 * @param missingIds called once for every id which does not exist or could not be read
+	 * @return existing items in the order of the first occurrence of the given ids, duplicate ids are returned once
+	 */
+	public List<T> findAllById(List<ID> ids, int parallelism, Consumer<ID> missingIds) {
 		Preconditions.checkArgument(ids != null, "The given Iterable of entities not be null!");
+		Preconditions.checkArgument(parallelism > 0, "Parallelism must be positive");
+		Preconditions.checkArgument(missingIds != null, "Consumer of missing ids could not be null!");
 
-		return backend.findAllIds()
-				.stream()
-				.filter(ids::contains)
-				.map(this::findOne)
+		final Set<ID> uniqueIds = new LinkedHashSet<>(ids);
+		Preconditions.checkArgument(uniqueIds.contains(null) == false, "The given ids must not contain null!");
+
+		final List<ID> readOrder = new ArrayList<>(uniqueIds);
+		readOrder.sort(Comparator.comparing(String::valueOf));
+
+		final Map<ID, T> items = new ConcurrentHashMap<>();
+		final Consumer<ID> reader = id -> {
+			final T item = findOne(id);
+			if (item != null) {
+				items.put(id, item);
+			}
+		};
+
+		if (parallelism == 1 || readOrder.size() <= 1) {
+			readOrder.forEach(reader);
+		} else {
+			submitRead(parallelism, () -> readOrder.parallelStream().forEach(reader)).join();
+		}
+
+		uniqueIds.stream()
+				.filter(id -> items.containsKey(id) == false)
+				.forEach(missingIds);
+
+		return uniqueIds.stream()
+				.map(items::get)
 				.filter(Objects::nonNull)
 				.collect(Collectors.toList());
 	}
 
+	private synchronized ForkJoinTask<?> submitRead(int parallelism, Runnable read) {
+		Preconditions.checkState(closed == false, "Repository of %s is closed", typeClass);
+
+		if (readPool == null || readPool.getParallelism() != parallelism) {
+			//already submitted reads are finished by the replaced pool
+			if (readPool != null) {
+				readPool.shutdown();
+			}
+			readPool = new ForkJoinPool(parallelism);
+		}
+		return readPool.submit(read);
+	}
+
+	/**
+	 * Shuts down the pool of parallel reads and closes the storage backend, it is called by {@link PojoDB#close()}
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			closed = true;
+
+			if (readPool != null) {
+				readPool.shutdown();
+				readPool = null;
+			}
+		}
+
+		backend.close();
+	}
+
 	@SuppressWarnings("unchecked")
 	public <C> List<C> findAllByClass(Class<C> clazz) {
 		Preconditions.checkArgument(clazz != null, "Class could not be null!");
 
-		return (List<C>) findAll().stream()
-				.filter(i -> clazz.isAssignableFrom(i.getClass()))
-				.collect(Collectors.toList());
+		try (Stream<T> items = stream()) {
+			return (List<C>) items
+					.filter(i -> clazz.isAssignableFrom(i.getClass()))
+					.collect(Collectors.toList());
+		}
 	}
 
 	public T findOne(ID id) {
@@ -277,34 +614,67 @@ public class Repository<T, ID> {
 		return backend.exists(id);
 	}
 
+	/**
+	 * @return count of stored items, items are not read, so even the ones which could not be deserialized are counted
+	 */
 	public long count() {
-		return findAll().size();
+		return backend.count();
 	}
 
 	/*package*/ void rollback_single(ASingleIdWriteCommand<?, ?> writeCommand, TxContext context) throws IOException {
 		context.setTypeClass(getTypeClass());
 
-		backend.rollback((ID) writeCommand.getId(), context);
+		final ID id = getId(writeCommand);
+		indexManager.discard(context.getOpId(), id);
+		backend.rollback(id, context);
 	}
 
 	/*package*/ void backup_single(ASingleIdWriteCommand<?, ?> writeCommand, TxContext context) throws IOException {
 		context.setTypeClass(getTypeClass());
 
-		backend.backup((ID) writeCommand.getId(), context);
+		final ID id = getId(writeCommand);
+		backend.backup(id, context);
+		indexManager.begin(id);
 	}
 
 	/*package*/ void clearBackup_single(ASingleIdWriteCommand<?, ?> writeCommand, TxContext context) throws IOException {
 		context.setTypeClass(getTypeClass());
 
-		backend.clearBackup((ID) writeCommand.getId(), context);
+		final ID id = getId(writeCommand);
+		backend.clearBackup(id, context);
+
+		//storage commit is finished, indexes could see the change
+		indexManager.publish(context.getOpId(), id, this::findOne);
+	}
+
+	/*package*/ void prepare_save(SaveWriteCommand<?, ?> saveWriteCommand) throws IOException {
+		saveWriteCommand.serialize(backend.getFileFormat());
 	}
 
 	/*package*/ void commit_save(SaveWriteCommand<?, ?> saveWriteCommand, TxContext context) throws IOException {
-		backend.save((ID) saveWriteCommand.getId(), backend.getFileFormat().toString(saveWriteCommand.getItem()), context);
+		final ID id = getId(saveWriteCommand);
+
+		//bytes prepared for the redo log, replayed command has them from the redo log
+		backend.save(id, saveWriteCommand.serialize(backend.getFileFormat()), context);
+
+		if (indexManager.isEmpty() == false) {
+			indexManager.stageSave(context.getOpId(), id, getTypeClass().cast(saveWriteCommand.materialize(backend.getFileFormat())));
+		}
 	}
 
 	/*package*/ void commit_delete(DeleteWriteCommand<?, ?> deleteWriteCommand, TxContext context) throws IOException {
-		backend.delete((ID) deleteWriteCommand.getId(), context);
+		final ID id = getId(deleteWriteCommand);
+
+		backend.delete(id, context);
+		indexManager.stageDelete(context.getOpId(), id);
+	}
+
+	/**
+	 * Commands are routed to the repository by class of the item, so the id is of this repository
+	 */
+	@SuppressWarnings("unchecked")
+	private ID getId(ASingleIdWriteCommand<?, ?> writeCommand) {
+		return (ID) writeCommand.getId();
 	}
 
 	private void tx(IWriteCommand writeCommand) {
@@ -19,6 +19,7 @@ package global.simpleway.pojodb.repository;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -26,28 +27,76 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import global.simpleway.pojodb.format.IFileFormatStrategy;
+
 public class SaveWriteCommand<T, ID> extends ASingleIdWriteCommand<T, ID> {
 
 	private static final long serialVersionUID = 2103130148886132784L;
 
-	private final T item;
+	//materialized item, it's not in the redo log, replayed command has it from the data
+	@JsonIgnore
+	private T item;
 
-	@JsonCreator
-	public SaveWriteCommand(@JsonProperty("item") T item, Function<T, ID> idSupplier) {
+	private final Class<?> itemClass;
+
+	//item serialized in the file format of its repository, same bytes go to the redo log and to the storage
+	private byte[] data;
+
+	public SaveWriteCommand(T item, Function<T, ID> idSupplier) {
 		super(idSupplier.apply(item));
 		this.item = item;
+		this.itemClass = item.getClass();
 	}
 
-	@JsonIgnore
-	@Override
-	public ID getId() {
-		return super.getId();
+	@JsonCreator
+	public SaveWriteCommand(@JsonProperty("id") ID id, @JsonProperty("itemClass") Class<?> itemClass, @JsonProperty("data") byte[] data) {
+		super(id);
+		this.itemClass = itemClass;
+		this.data = data;
 	}
 
+	/**
+	 * @return item or null for replayed command before the commit
+	 */
+	@JsonIgnore
 	public T getItem() {
 		return item;
 	}
 
+	public Class<?> getItemClass() {
+		return itemClass;
+	}
+
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * Serializes the item only once, later calls return the same bytes
+	 */
+	/*package*/ byte[] serialize(IFileFormatStrategy fileFormat) throws IOException {
+		if (data == null) {
+			data = fileFormat.toBytes(item);
+		}
+		return data;
+	}
+
+	/**
+	 * Deserializes the item of replayed command only once
+	 */
+	@SuppressWarnings("unchecked")
+	/*package*/ T materialize(IFileFormatStrategy fileFormat) throws IOException {
+		if (item == null) {
+			item = (T) fileFormat.fromBytes(data, itemClass);
+		}
+		return item;
+	}
+
+	@Override
+	public void prepare(Repository<?, ?> repository) throws IOException {
+		repository.prepare_save(this);
+	}
+
 	@Override
 	public void backup(Repository<?, ?> repository, TxContext context) throws IOException {
 		repository.backup_single(this, context);
@@ -68,6 +117,11 @@ public class SaveWriteCommand<T, ID> extends ASingleIdWriteCommand<T, ID> {
 		repository.clearBackup_single(this, context);
 	}
 
+	@Override
+	public void forEachTouchedId(BiConsumer<Class<?>, Object> consumer) {
+		consumer.accept(itemClass, getId());
+	}
+
 	public static <T, S extends T, ID> List<IWriteCommand> create(List<S> items, Function<T, ID> idSupplier) {
 		if (items == null) return Collections.emptyList();
 
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.storage;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import global.simpleway.pojodb.utils.LogUtil;
+
+/**
+ * Files of the collection are spread to sub folders of the collection folder, so no folder holds too many files
+ */
+public abstract class AShardedDirectoryLayout implements IDirectoryLayout {
+
+	/**
+	 * @param id of the item as string
+	 * @return name of the sub folder, same for every call with the same id
+	 */
+	protected abstract String getShard(String id);
+
+	@Override
+	public Path getDirectory(Path collectionPath, String id) {
+		return collectionPath.resolve(getShard(id));
+	}
+
+	/**
+	 * @throws IllegalStateException when there are item files directly in the collection folder, i.e. it was not migrated from the flat layout
+	 */
+	@Override
+	public List<Path> listDirectories(Path collectionPath) throws IOException {
+		final List<Path> directories = new ArrayList<>();
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(collectionPath)) {
+			for (Path path : stream) {
+				if (Files.isDirectory(path)) {
+					directories.add(path);
+				} else if (Files.isRegularFile(path)) {
+					//items would be invisible silently, the layout could not find them
+					throw new IllegalStateException(LogUtil.build("Collection {} contains file {} of another layout, migrate it by {} first", collectionPath, path,
+							DirectoryLayoutMigration.class.getSimpleName()));
+				}
+			}
+		}
+
+		return directories;
+	}
+
+}
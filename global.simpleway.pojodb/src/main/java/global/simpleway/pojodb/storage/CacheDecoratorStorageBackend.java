@@ -17,60 +17,203 @@
 package global.simpleway.pojodb.storage;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.CacheBuilder;
+
 import global.simpleway.pojodb.format.IFileFormatStrategy;
 import global.simpleway.pojodb.repository.TxContext;
+import global.simpleway.pojodb.storage.CacheOptions.WarmUp;
 
 /**
  * All READs are cached, all UPDATEs, CREATEs and DELETEs are changing cache on the fly.
+ * <p>
+ * When {@link CacheOptions} are bounded, least recently used objects are evicted and misses are read from the delegate.
+ * Objects are loaded on start, on the first access or by background thread according to {@link WarmUp}.
+ * Ids of all items are still kept in memory, so {@link #findAllIds()} and {@link #exists(Object)} do not touch the delegate.
  */
 public class CacheDecoratorStorageBackend<ID> implements IStorageBackend<ID> {
 
 	private static final Logger logger = LoggerFactory.getLogger(CacheDecoratorStorageBackend.class);
 
+	//marker of staged delete, concurrent map could not hold null
+	private static final byte[] DELETED = new byte[0];
+
 	private final IStorageBackend<ID> delegate;
 
+	private final CacheOptions options;
+
 	//caching real objects, it's embedded database, so evict could not fetch all data from db.
 	//instead of it changing data when committing to the file system
-	private final ConcurrentMap<ID, Object> committedCache = new ConcurrentHashMap<>();
+	private final ConcurrentMap<ID, CachedItem> committedCache;
+
+	//ids of all committed items, even of the evicted ones
+	private final Set<ID> ids = ConcurrentHashMap.newKeySet();
+
+	//released when warm up of the cache is finished
+	private final CountDownLatch warmUpDone = new CountDownLatch(1);
+
+	//changed before every commit into the cache, read-through of a miss is not cached when commit happened meanwhile
+	private final AtomicLong commitGeneration = new AtomicLong();
 
 	//this is better way how to do it then on file system
 	//there are separated committed and uncommitted data for some opId
-	private final Map<String, Map<ID, String>> currentTxCache = new HashMap<>();
+	//scope of the opId is changed only by the thread of its tx, so txs do not share any lock here
+	private final ConcurrentMap<String, Map<ID, byte[]>> currentTxCache = new ConcurrentHashMap<>();
+
+	//running txs of items, staged change is published only when no other tx of the item overlaps it
+	private final ConcurrentMap<ID, CurrentTxs> currentTxs = new ConcurrentHashMap<>();
 
 	public CacheDecoratorStorageBackend(IStorageBackend<ID> delegate, Class<?> typeClass) {
+		this(delegate, typeClass, CacheOptions.unbounded());
+	}
+
+	public CacheDecoratorStorageBackend(IStorageBackend<ID> delegate, Class<?> typeClass, CacheOptions options) {
 		this.delegate = delegate;
+		this.options = options;
+		this.committedCache = createCache(options);
 
 		initialize(typeClass);
 	}
 
+	private static <ID> ConcurrentMap<ID, CachedItem> createCache(CacheOptions options) {
+		if (options.getMaxEntries() != CacheOptions.UNBOUNDED) {
+			return CacheBuilder.newBuilder()
+					.maximumSize(options.getMaxEntries())
+					.<ID, CachedItem> build()
+					.asMap();
+		} else if (options.getMaxWeightBytes() != CacheOptions.UNBOUNDED) {
+			return CacheBuilder.newBuilder()
+					.maximumWeight(options.getMaxWeightBytes())
+					.<ID, CachedItem> weigher((id, item) -> item.weight)
+					.build()
+					.asMap();
+		} else {
+			return new ConcurrentHashMap<>();
+		}
+	}
+
 	private void initialize(Class<?> typeClass) {
-		delegate.findAllIds().forEach(id -> {
-			try {
-				final Object pojo = delegate.read(id, typeClass);
-				committedCache.put(id, pojo);
-			} catch (IOException e) {
-				logger.warn("Could not read stored object for id: {}", id, e);
-			}
-		});
+		if (options.getWarmUp() == WarmUp.EAGER) {
+			forEachId(delegate.findAllIds(), id -> {
+				try {
+					final Object pojo = delegate.read(id, typeClass);
+					committedCache.put(id, new CachedItem(pojo, weigh(pojo)));
+					ids.add(id);
+				} catch (IOException e) {
+					logger.warn("Could not read stored object for id: {}", id, e);
+				}
+			});
+
+			warmUpDone.countDown();
+			return;
+		}
+
+		//objects are loaded on the first read
+		ids.addAll(delegate.findAllIds());
+
+		if (options.getWarmUp() == WarmUp.BACKGROUND) {
+			final Thread thread = new Thread(() -> preload(typeClass), "pojodb-cache-warmup-" + typeClass.getSimpleName());
+			thread.setDaemon(true);
+			thread.start();
+		} else {
+			warmUpDone.countDown();
+		}
+	}
+
+	private void preload(Class<?> typeClass) {
+		try {
+			forEachId(ids, id -> {
+				//there is no space for more objects anyway
+				if (options.getMaxEntries() != CacheOptions.UNBOUNDED && committedCache.size() >= options.getMaxEntries()) return;
+
+				try {
+					read(id, typeClass);
+				} catch (IOException | RuntimeException e) {
+					logger.warn("Could not read stored object for id: {}", id, e);
+				}
+			});
+
+			logger.debug("Cache of {} warmed up with {} objects", typeClass, committedCache.size());
+		} finally {
+			warmUpDone.countDown();
+		}
+	}
+
+	/**
+	 * Runs the action in the calling thread or spreads it over fork join pool with configured parallelism
+	 */
+	private void forEachId(Collection<ID> idsToLoad, Consumer<ID> action) {
+		if (options.getWarmUpParallelism() <= 1) {
+			idsToLoad.forEach(action);
+			return;
+		}
+
+		final ForkJoinPool pool = new ForkJoinPool(options.getWarmUpParallelism());
+		try {
+			pool.submit(() -> idsToLoad.parallelStream().forEach(action)).join();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Waits until the warm up of the cache is finished, it's immediate for {@link WarmUp#EAGER} and {@link WarmUp#LAZY}
+	 *
+	 * @return false if the timeout elapsed before the warm up finished
+	 * @throws InterruptedException
+	 */
+	public boolean awaitWarmUp(long timeout, TimeUnit unit) throws InterruptedException {
+		return warmUpDone.await(timeout, unit);
+	}
+
+	public CacheOptions getOptions() {
+		return options;
+	}
+
+	/**
+	 * @return count of objects held in memory right now
+	 */
+	public long getCachedCount() {
+		return committedCache.size();
 	}
 
 	@Override
 	public Set<ID> findAllIds() {
-		return committedCache.keySet();
+		return Collections.unmodifiableSet(ids);
+	}
+
+	@Override
+	public long count() {
+		return ids.size();
 	}
 
 	@Override
 	public void backup(ID id, TxContext txContext) throws IOException {
 		delegate.backup(id, txContext);
+
+		//every write of the item happens between backup and clear backup of its tx
+		currentTxs.compute(id, (key, txs) -> {
+			if (txs == null) return new CurrentTxs();
+
+			txs.count++;
+			txs.overlapped = true;
+			return txs;
+		});
 	}
 
 	@Override
@@ -78,11 +221,23 @@ public class CacheDecoratorStorageBackend<ID> implements IStorageBackend<ID> {
 		delegate.clearBackup(id, context);
 
 		//here we could commit the rest in copy on write cache after cleaning .old files
-		doCommit(id, context);
+		currentTxs.compute(id, (key, txs) -> {
+			final boolean overlapped = txs != null && txs.overlapped;
+
+			doCommit(id, context, overlapped);
+
+			if (txs == null || --txs.count > 0) return txs;
+
+			//order of writes of overlapping txs is not known, so the committed state is read from the delegate again
+			if (overlapped) {
+				invalidate(id);
+			}
+			return null;
+		});
 	}
 
 	@Override
-	public void save(ID id, String data, TxContext context) throws IOException {
+	public void save(ID id, byte[] data, TxContext context) throws IOException {
 		delegate.save(id, data, context);
 
 		doSaveOrDelete(id, data, context);
@@ -90,12 +245,38 @@ public class CacheDecoratorStorageBackend<ID> implements IStorageBackend<ID> {
 
 	@Override
 	public boolean exists(ID id) {
-		return committedCache.containsKey(id);
+		return ids.contains(id);
 	}
 
 	@Override
 	public Object read(ID id, Class<?> clazz) throws IOException {
-		return committedCache.get(id);
+		if (ids.contains(id) == false) return null;
+
+		final CachedItem cached = committedCache.get(id);
+		if (cached != null) return cached.get(getFileFormat());
+
+		final long generation = commitGeneration.get();
+		final Object pojo = delegate.read(id, clazz);
+		if (pojo == null) return null;
+
+		final CachedItem loaded = new CachedItem(pojo, weigh(pojo));
+		committedCache.compute(id, (key, current) -> {
+			if (current != null) return current;
+
+			return commitGeneration.get() == generation ? loaded : null;
+		});
+
+		return pojo;
+	}
+
+	private int weigh(Object pojo) throws IOException {
+		if (options.getMaxWeightBytes() == CacheOptions.UNBOUNDED) return 1;
+
+		return weigh(getFileFormat().toBytes(pojo));
+	}
+
+	private static int weigh(byte[] data) {
+		return Math.max(1, data.length);
 	}
 
 	@Override
@@ -117,59 +298,124 @@ public class CacheDecoratorStorageBackend<ID> implements IStorageBackend<ID> {
 		delegate.rollback(id, context);
 	}
 
-	private void doSaveOrDelete(ID id, String data, TxContext context) {
-		synchronized (currentTxCache) {
-			final String opId = context.getOpId();
+	private void doSaveOrDelete(ID id, byte[] data, TxContext context) {
+		final Map<ID, byte[]> scope = currentTxCache.computeIfAbsent(context.getOpId(), opId -> new HashMap<>());
 
-			currentTxCache.putIfAbsent(opId, new HashMap<>());
+		scope.put(id, data != null ? data : DELETED);
+	}
+
+	private void doRollback(ID id, TxContext context) {
+		final String opId = context.getOpId();
 
-			final Map<ID, String> scope = currentTxCache.get(opId);
-			scope.put(id, data);
+		final Map<ID, byte[]> scope = currentTxCache.get(opId);
+		if (scope == null) return;
 
-			currentTxCache.put(opId, scope);
+		scope.remove(id);
+
+		if (scope.isEmpty()) {
+			currentTxCache.remove(opId, scope);
 		}
 	}
 
-	private void doRollback(ID id, TxContext context) {
-		synchronized (currentTxCache) {
-			final String opId = context.getOpId();
+	/**
+	 * Publishes staged change of the tx, it's called in the compute of current txs of the item
+	 *
+	 * @param overlapped true when another tx of the item was running meanwhile, so staged change could be already overwritten
+	 */
+	private void doCommit(ID id, TxContext context, boolean overlapped) {
+		final String opId = context.getOpId();
+
+		final Map<ID, byte[]> scope = currentTxCache.get(opId);
+
+		//commit do nothing in case of rollback
+		if (scope == null || scope.containsKey(id) == false) return;
+
+		final byte[] value = scope.remove(id);
+
+		commitGeneration.incrementAndGet();
+
+		if (overlapped) {
+			//the delegate knows what is committed until the last tx of the item is finished
+			committedCache.remove(id);
+		} else if (value != DELETED) {
+			//bytes staged by the tx are the committed content, they are deserialized on the first read only
+			committedCache.put(id, new CachedItem(value, context.getTypeClass()));
+			ids.add(id);
+		} else {
+			committedCache.remove(id);
+			ids.remove(id);
+		}
 
-			final Map<ID, String> scope = currentTxCache.get(opId);
-			if (scope == null) return;
+		if (scope.isEmpty()) {
+			currentTxCache.remove(opId, scope);
+		}
+	}
 
-			scope.remove(id);
+	@Override
+	public void close() throws IOException {
+		delegate.close();
+	}
 
-			if (scope.isEmpty()) {
-				currentTxCache.remove(opId);
-			} else {
-				currentTxCache.put(opId, scope);
-			}
+	private void invalidate(ID id) {
+		commitGeneration.incrementAndGet();
+		committedCache.remove(id);
+
+		if (delegate.exists(id)) {
+			ids.add(id);
+		} else {
+			ids.remove(id);
 		}
 	}
 
-	private void doCommit(ID id, TxContext context) {
-		synchronized (currentTxCache) {
-			final Map<ID, String> scope = currentTxCache.get(context.getOpId());
+	/**
+	 * Txs of the item between backup and clear backup, changed only in compute of the map
+	 */
+	private static class CurrentTxs {
 
-			//commit do nothing in case of rollback
-			if (scope == null || scope.containsKey(id) == false) return;
+		private int count = 1;
 
-			final String value = scope.remove(id);
+		//more txs of the item were running at the same time
+		private boolean overlapped = false;
+	}
 
-			if (value != null) {
-				try {
-					final Object pojo = delegate.read(id, context.getTypeClass());
-					committedCache.put(id, pojo);
-				} catch (IOException e) {
-					throw new IllegalArgumentException(e);
-				}
-			} else {
-				committedCache.remove(id);
-			}
+	/**
+	 * Cached object, committed one is kept serialized until it's read for the first time
+	 */
+	private static class CachedItem {
+
+		private volatile Object value;
+
+		//serialized committed object, released after deserialization
+		private byte[] data;
 
-			if (scope.isEmpty()) {
-				currentTxCache.remove(context.getOpId());
+		private final Class<?> typeClass;
+
+		//estimated size in bytes, used only when cache is bounded by weight
+		private final int weight;
+
+		private CachedItem(Object value, int weight) {
+			this.value = value;
+			this.typeClass = null;
+			this.weight = weight;
+		}
+
+		private CachedItem(byte[] data, Class<?> typeClass) {
+			this.data = data;
+			this.typeClass = typeClass;
+			this.weight = weigh(data);
+		}
+
+		private Object get(IFileFormatStrategy fileFormat) throws IOException {
+			final Object current = value;
+			if (current != null) return current;
+
+			synchronized (this) {
+				if (value == null) {
+					value = fileFormat.fromBytes(data, typeClass);
+					data = null;
+				}
+				return value;
 			}
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.storage;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Configuration of {@link CacheDecoratorStorageBackend}, by default all objects of the collection are loaded on start and cached without eviction
+ */
+public class CacheOptions {
+
+	public static final long UNBOUNDED = -1;
+
+	/**
+	 * When objects are loaded into the cache, ids of all items are always loaded on start
+	 */
+	public enum WarmUp {
+		/**
+		 * all objects are deserialized before the repository is created
+		 */
+		EAGER,
+		/**
+		 * objects are deserialized on the first access
+		 */
+		LAZY,
+		/**
+		 * objects are deserialized on the first access and background thread preloads the rest
+		 */
+		BACKGROUND
+	}
+
+	private final long maxEntries;
+
+	private final long maxWeightBytes;
+
+	private final WarmUp warmUp;
+
+	private final int warmUpParallelism;
+
+	private CacheOptions(long maxEntries, long maxWeightBytes, WarmUp warmUp, int warmUpParallelism) {
+		this.maxEntries = maxEntries;
+		this.maxWeightBytes = maxWeightBytes;
+		this.warmUp = warmUp;
+		this.warmUpParallelism = warmUpParallelism;
+	}
+
+	public static CacheOptions unbounded() {
+		return builder().build();
+	}
+
+	public static CacheOptionsBuilder builder() {
+		return new CacheOptionsBuilder();
+	}
+
+	public long getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getMaxWeightBytes() {
+		return maxWeightBytes;
+	}
+
+	public WarmUp getWarmUp() {
+		return warmUp;
+	}
+
+	public int getWarmUpParallelism() {
+		return warmUpParallelism;
+	}
+
+	public boolean isBounded() {
+		return maxEntries != UNBOUNDED || maxWeightBytes != UNBOUNDED;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheOptions{maxEntries=" + maxEntries + ", maxWeightBytes=" + maxWeightBytes + ", warmUp=" + warmUp + ", warmUpParallelism=" + warmUpParallelism + '}';
+	}
+
+	public static class CacheOptionsBuilder {
+
+		private long maxEntries = UNBOUNDED;
+
+		private long maxWeightBytes = UNBOUNDED;
+
+		private WarmUp warmUp;
+
+		private int warmUpParallelism = 1;
+
+		private CacheOptionsBuilder() {
+			//no code
+		}
+
+		/**
+		 * Least recently used objects are evicted when there is more cached objects
+		 *
+		 * @param maxEntries
+		 * @return
+		 */
+		public CacheOptionsBuilder withMaxEntries(long maxEntries) {
+			Preconditions.checkArgument(maxEntries >= 0, "Max entries could not be negative");
+
+			this.maxEntries = maxEntries;
+			return this;
+		}
+
+		/**
+		 * Least recently used objects are evicted when serialized size of cached objects is bigger
+		 *
+		 * @param maxWeightBytes
+		 * @return
+		 */
+		public CacheOptionsBuilder withMaxWeightBytes(long maxWeightBytes) {
+			Preconditions.checkArgument(maxWeightBytes >= 0, "Max weight could not be negative");
+
+			this.maxWeightBytes = maxWeightBytes;
+			return this;
+		}
+
+		/**
+		 * Default is {@link WarmUp#EAGER} for unbounded cache and {@link WarmUp#LAZY} for bounded one
+		 *
+		 * @param warmUp
+		 * @return
+		 */
+		public CacheOptionsBuilder withWarmUp(WarmUp warmUp) {
+			Preconditions.checkArgument(warmUp != null, "Warm up could not be null");
+
+			this.warmUp = warmUp;
+			return this;
+		}
+
+		/**
+		 * Objects are read and deserialized by this count of threads during the warm up, 1 means the warm up thread only
+		 *
+		 * @param warmUpParallelism
+		 * @return
+		 */
+		public CacheOptionsBuilder withWarmUpParallelism(int warmUpParallelism) {
+			Preconditions.checkArgument(warmUpParallelism > 0, "Warm up parallelism must be positive");
+
+			this.warmUpParallelism = warmUpParallelism;
+			return this;
+		}
+
+		public CacheOptions build() {
+			Preconditions.checkArgument(maxEntries == UNBOUNDED || maxWeightBytes == UNBOUNDED, "Only one of max entries and max weight could be used");
+
+			final boolean bounded = maxEntries != UNBOUNDED || maxWeightBytes != UNBOUNDED;
+			final WarmUp resolvedWarmUp = warmUp != null ? warmUp : bounded ? WarmUp.LAZY : WarmUp.EAGER;
+
+			return new CacheOptions(maxEntries, maxWeightBytes, resolvedWarmUp, warmUpParallelism);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.storage;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import global.simpleway.pojodb.PojoDB;
+import global.simpleway.pojodb.repository.NioFileUtils;
+import global.simpleway.pojodb.utils.LogUtil;
+
+/**
+ * Moves files of the collection of {@link ImmediateFlushStorageBackend} to another {@link IDirectoryLayout}.
+ * <p>
+ * It's offline migration, it must run before the repository of the collection is created. Interrupted migration could be run again.
+ * <p>
+ * Replay of incomplete txs would target paths of the previous layout, so migration is refused while the redo log has incomplete txs
+ * or the collection has transient .old or .new files. Check for consistency and repair the db first.
+ */
+public class DirectoryLayoutMigration {
+
+	private static final Logger logger = LoggerFactory.getLogger(DirectoryLayoutMigration.class);
+
+	//collection folder and one level of sub folders
+	private static final int MAX_DEPTH = 2;
+
+	private DirectoryLayoutMigration() {
+		//no code
+	}
+
+	/**
+	 * Migrates the collection to the layout of the given db
+	 *
+	 * @return count of moved files
+	 * @throws IOException
+	 * @throws IllegalStateException when the redo log has incomplete txs
+	 */
+	public static int migrate(PojoDB pojoDB, String collectionName) throws IOException {
+		if (pojoDB.getRedoLogService().hasIncompleteTxs()) {
+			throw new IllegalStateException(LogUtil.build("Redo log of {} has incomplete txs, check for consistency and repair it first", pojoDB.getStoragePath()));
+		}
+
+		return migrate(pojoDB.getStoragePath().resolve(collectionName), pojoDB.getDirectoryLayout(), pojoDB.getDurability());
+	}
+
+	/**
+	 * Redo log is not checked here, the caller must ensure it has no incomplete txs
+	 *
+	 * @param collectionPath folder of the collection
+	 * @param targetLayout layout to move the files to, files could be in any layout now
+	 * @return count of moved files
+	 * @throws IOException
+	 */
+	public static int migrate(Path collectionPath, IDirectoryLayout targetLayout, Durability durability) throws IOException {
+		if (Files.isDirectory(collectionPath) == false) return 0;
+
+		final List<Path> files;
+		try (Stream<Path> stream = Files.walk(collectionPath, MAX_DEPTH)) {
+			files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+		}
+
+		for (Path file : files) {
+			final String fileName = file.getFileName().toString();
+			if (fileName.endsWith(".old") || fileName.endsWith(".new")) {
+				throw new IllegalStateException(LogUtil.build("Collection {} has incomplete tx on file {}, check for consistency and repair it first", collectionPath, file));
+			}
+		}
+
+		int moved = 0;
+		for (Path file : files) {
+			final String fileName = file.getFileName().toString();
+			final String id = StringUtils.split(fileName, ".")[0];
+			final Path target = targetLayout.getDirectory(collectionPath, id).resolve(fileName);
+
+			if (target.equals(file)) continue;
+
+			Files.createDirectories(target.getParent());
+			NioFileUtils.rename(file, target, durability);
+			moved++;
+		}
+
+		deleteEmptyDirectories(collectionPath);
+
+		logger.info("Collection {} migrated to {}, {} files moved", collectionPath, targetLayout.getClass().getSimpleName(), moved);
+		return moved;
+	}
+
+	private static void deleteEmptyDirectories(Path collectionPath) throws IOException {
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(collectionPath, Files::isDirectory)) {
+			for (Path directory : stream) {
+				try (DirectoryStream<Path> content = Files.newDirectoryStream(directory)) {
+					if (content.iterator().hasNext()) continue;
+				}
+
+				Files.delete(directory);
+			}
+		}
+	}
+
+}
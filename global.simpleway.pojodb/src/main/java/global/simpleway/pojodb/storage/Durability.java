@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.storage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * What is forced to the disk before write operation returns, from the fastest to the safest
+ */
+public enum Durability {
+
+	/**
+	 * Nothing is forced, writes are left in OS page cache. Crash of the OS could lose recent txs without any trace in redo log.
+	 */
+	OS_BUFFERED(false, false, false, false),
+
+	/**
+	 * Redo log records of concurrent txs are forced together once per group commit batch before tx modifies data files,
+	 * data files are left in OS page cache. Crash of the OS could lose recent complete txs, but never leaves unrepairable incomplete one.
+	 */
+	BATCH(true, false, false, false),
+
+	/**
+	 * Like {@link #BATCH} and content of every written data file is forced (fdatasync) before it's renamed to its place.
+	 */
+	FDATASYNC(true, true, false, false),
+
+	/**
+	 * Content and metadata of every written file are forced (fsync) and so is its parent directory after rename or delete,
+	 * so even the new directory entry survives the crash.
+	 */
+	FSYNC(true, true, true, true);
+
+	private final boolean forceRedoLog;
+	private final boolean forceFiles;
+	private final boolean forceMetadata;
+	private final boolean forceDirectories;
+
+	private Durability(boolean forceRedoLog, boolean forceFiles, boolean forceMetadata, boolean forceDirectories) {
+		this.forceRedoLog = forceRedoLog;
+		this.forceFiles = forceFiles;
+		this.forceMetadata = forceMetadata;
+		this.forceDirectories = forceDirectories;
+	}
+
+	public boolean isForceRedoLog() {
+		return forceRedoLog;
+	}
+
+	public boolean isForceFiles() {
+		return forceFiles;
+	}
+
+	public boolean isForceMetadata() {
+		return forceMetadata;
+	}
+
+	public boolean isForceDirectories() {
+		return forceDirectories;
+	}
+
+	/**
+	 * Forces written data file according to this level
+	 *
+	 * @param channel of written file
+	 * @throws IOException
+	 */
+	public void force(FileChannel channel) throws IOException {
+		if (forceFiles) {
+			channel.force(forceMetadata);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.storage;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * All files of the collection are in the collection folder, it's the default layout
+ */
+public class FlatDirectoryLayout implements IDirectoryLayout {
+
+	@Override
+	public Path getDirectory(Path collectionPath, String id) {
+		return collectionPath;
+	}
+
+	@Override
+	public List<Path> listDirectories(Path collectionPath) {
+		return Collections.singletonList(collectionPath);
+	}
+
+}
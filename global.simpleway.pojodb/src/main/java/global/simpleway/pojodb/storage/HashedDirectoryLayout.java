@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.storage;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Sub folder is chosen by hash of the id, items are spread evenly even for sequential ids
+ */
+public class HashedDirectoryLayout extends AShardedDirectoryLayout {
+
+	public static final int DEFAULT_SHARDS = 256;
+
+	private final int shards;
+
+	//count of hex digits of the highest shard
+	private final String format;
+
+	public HashedDirectoryLayout() {
+		this(DEFAULT_SHARDS);
+	}
+
+	public HashedDirectoryLayout(int shards) {
+		Preconditions.checkArgument(shards > 0, "Count of shards must be positive");
+
+		this.shards = shards;
+		this.format = "%0" + Math.max(1, Integer.toHexString(shards - 1).length()) + "x";
+	}
+
+	public int getShards() {
+		return shards;
+	}
+
+	@Override
+	protected String getShard(String id) {
+		//hash code of string is specified, so the shard is stable across versions of java
+		return String.format(format, Math.floorMod(id.hashCode(), shards));
+	}
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Where files of the items are placed inside of the collection folder. Transient .old and .new files are always next to the item file.
+ */
+public interface IDirectoryLayout {
+
+	/**
+	 * @param collectionPath folder of the collection
+	 * @param id of the item as string
+	 * @return folder of the item file, it does not have to exist yet
+	 */
+	public Path getDirectory(Path collectionPath, String id);
+
+	/**
+	 * @param collectionPath folder of the collection
+	 * @return all existing folders with item files, they are scanned independently
+	 * @throws IOException
+	 */
+	public List<Path> listDirectories(Path collectionPath) throws IOException;
+
+}
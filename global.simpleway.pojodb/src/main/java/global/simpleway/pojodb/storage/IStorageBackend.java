@@ -16,21 +16,51 @@
 
 package global.simpleway.pojodb.storage;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.Set;
+import java.util.stream.Stream;
 
 import global.simpleway.pojodb.format.IFileFormatStrategy;
 import global.simpleway.pojodb.repository.TxContext;
 
-public interface IStorageBackend<ID> {
+public interface IStorageBackend<ID> extends Closeable {
 
 	public Set<ID> findAllIds();
 
+	/**
+	 * Lazy variant of {@link #findAllIds()}, ids are not sorted and stream must be closed to release file handles
+	 *
+	 * @return
+	 */
+	public default Stream<ID> streamAllIds() {
+		return findAllIds().stream();
+	}
+
+	/**
+	 * @return count of committed items, items are not read
+	 */
+	public default long count() {
+		return findAllIds().size();
+	}
+
 	public void backup(ID id, TxContext txContext) throws IOException;
 	
 	public void clearBackup(ID id, TxContext context) throws IOException;
 	
-	public void save(ID id, String data, TxContext context) throws IOException;
+	/**
+	 * @param data content of the item in {@link #getFileFormat()}
+	 */
+	public void save(ID id, byte[] data, TxContext context) throws IOException;
+
+	/**
+	 * Kept for compatibility with backends and callers working with String content
+	 *
+	 * @param data String form of the item in {@link #getFileFormat()}, see {@link IFileFormatStrategy#toString(Object)}
+	 */
+	public default void save(ID id, String data, TxContext context) throws IOException {
+		save(id, getFileFormat().stringToBytes(data), context);
+	}
 
 	public boolean exists(ID id);
 	
@@ -42,4 +72,12 @@ public interface IStorageBackend<ID> {
 	
 	void rollback(ID id, TxContext context) throws IOException;
 
+	/**
+	 * Releases file handles and threads of the backend, it is called by {@link global.simpleway.pojodb.PojoDB#close()}
+	 */
+	@Override
+	public default void close() throws IOException {
+		//no code
+	}
+
 }
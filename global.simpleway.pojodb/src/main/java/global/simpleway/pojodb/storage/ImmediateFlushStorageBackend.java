@@ -16,22 +16,28 @@
 
 package global.simpleway.pojodb.storage;
 
-import java.io.File;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedHashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -39,8 +45,10 @@ import org.slf4j.LoggerFactory;
 
 import global.simpleway.pojodb.PojoDB;
 import global.simpleway.pojodb.format.IFileFormatStrategy;
+import global.simpleway.pojodb.lock.LockManager;
 import global.simpleway.pojodb.repository.NioFileUtils;
 import global.simpleway.pojodb.repository.TxContext;
+import global.simpleway.pojodb.utils.LogUtil;
 
 /**
  * Each atomic operation consists of 1 file system file and its flushed to the disk immediately in executing thread
@@ -50,6 +58,10 @@ import global.simpleway.pojodb.repository.TxContext;
  * <li>one item in collection</li>
  * <li>one index</li>
  * </ul>
+ * Files could be spread to sub folders by {@link IDirectoryLayout}.
+ * <p>
+ * Ids of committed items are listed from the folders once on start and then kept in memory, so {@link #findAllIds()}, {@link #count()}
+ * and {@link #exists(Object)} do not touch the disk.
  */
 public class ImmediateFlushStorageBackend<ID> implements IStorageBackend<ID> {
 
@@ -63,20 +75,50 @@ public class ImmediateFlushStorageBackend<ID> implements IStorageBackend<ID> {
 	//file format of the collection
 	private final IFileFormatStrategy fileFormatStrategy;
 
-	//map of file ids to who ever are waiting for tx to complete
-	private final Map<String, Integer> currentTxCount = new HashMap<>();
-	//many reads of the map and only one write to the map
-	private final ReadWriteLock currentTxCountLock = new ReentrantReadWriteLock();
+	//what is forced to the disk on every write
+	private final Durability durability;
+
+	//map of ids to count of who ever are waiting for tx to complete
+	private final ConcurrentMap<ID, Integer> currentTxCount = new ConcurrentHashMap<>();
+	//changed on every change of current tx counts, reads without lock are valid only when it's not changed
+	private final AtomicLong txCountStamp = new AtomicLong();
+
+	private final LongAdder optimisticReadFailures = new LongAdder();
 	
 	private final Function<String, ID> idCreator;
 
+	//ids of committed items, updated when the last current tx of the item is finished
+	private final Set<ID> committedIds;
+
+	//size of committed ids, size of the sorted set is not constant time
+	private final LongAdder committedCount = new LongAdder();
+
+	//where the files are placed in the collection folder
+	private final IDirectoryLayout directoryLayout;
+
+	//already existing sub folders of sharded layout
+	private final Set<Path> createdDirectories = ConcurrentHashMap.newKeySet();
+
 	public ImmediateFlushStorageBackend(PojoDB pojoDB, String collectionName, IFileFormatStrategy fileFormatStrategy, Function<String, ID> idCreator) {
+		this(pojoDB, collectionName, fileFormatStrategy, idCreator, pojoDB.getDirectoryLayout());
+	}
+
+	public ImmediateFlushStorageBackend(PojoDB pojoDB, String collectionName, IFileFormatStrategy fileFormatStrategy, Function<String, ID> idCreator,
+			IDirectoryLayout directoryLayout) {
 		this.pojoDB = pojoDB;
+		this.directoryLayout = directoryLayout;
 		this.collectionName = collectionName;
 		this.fileFormatStrategy = fileFormatStrategy;
 		this.idCreator = idCreator;
+		this.durability = pojoDB.getDurability();
+		//ids are sorted as file names
+		this.committedIds = pojoDB.isSortedIds() ? new ConcurrentSkipListSet<>(Comparator.comparing(String::valueOf)) : ConcurrentHashMap.newKeySet();
 		
 		createRepositoryPath();
+
+		listCommittedIds().stream()
+				.map(idCreator)
+				.forEach(id -> updateCommittedId(id, true));
 	}
 
 	private Path getRepositoryPath() {
@@ -98,7 +140,7 @@ public class ImmediateFlushStorageBackend<ID> implements IStorageBackend<ID> {
 	 * @return
 	 */
 	private Path getFilePathByString(String id) {
-		return getRepositoryPath().resolve(id + fileFormatStrategy.getFileExtension());
+		return directoryLayout.getDirectory(getRepositoryPath(), id).resolve(id + fileFormatStrategy.getFileExtension());
 	}
 
 	private Path getFilePath(ID id) {
@@ -121,7 +163,7 @@ public class ImmediateFlushStorageBackend<ID> implements IStorageBackend<ID> {
 	}
 
 	/**
-	 * New file should exists in synchronized (id) lock just during flushing content to be written to the some file
+	 * New file should exists in write lock of the item just during flushing content to be written to the some file
 	 * New file should immediately be renamed to desired file
 	 *
 	 * @param id
@@ -133,30 +175,76 @@ public class ImmediateFlushStorageBackend<ID> implements IStorageBackend<ID> {
 
 	@Override
 	public Object read(ID id, Class<?> clazz) throws IOException {
-		String data = null;
+		final InputStream input = open(id);
+
+		try (InputStream buffered = new BufferedInputStream(input)) {
+			return getFileFormat().read(buffered, clazz);
+		}
+	}
 
+	/**
+	 * Opens committed file of the item, opened file is not affected by later rename or delete.
+	 * <p>
+	 * Committed file is replaced only by atomic rename, so it's opened without the lock when the item is not in any current tx
+	 * and no tx started or finished meanwhile. Otherwise the file is chosen in the shared lock.
+	 */
+	private InputStream open(ID id) throws IOException {
 		final Path path = getFilePath(id);
 
-		synchronized (pojoDB.intern(path)) {
+		final long stamp = txCountStamp.get();
+		if (isInCurrentTx(id) == false) {
+			InputStream input = null;
+			try {
+				input = Files.newInputStream(path);
+			} catch (NoSuchFileException e) {
+				if (txCountStamp.get() == stamp) throw e;
+			}
+
+			if (txCountStamp.get() == stamp) return input;
+
+			//tx could save or delete the file after the check, so the opened one could be uncommitted
+			if (input != null) {
+				input.close();
+			}
+			optimisticReadFailures.increment();
+		}
+
+		final LockManager.Handle lock = pojoDB.getLockManager().readLock(path);
+		try {
 			//does not belong to any current tx
 			if (isInCurrentTx(id) == false) {
-				data = NioFileUtils.read(path);
+				return Files.newInputStream(path);
 			}
 			//ok so it's somewhere between backup() and clearBackup()
 			else {
-					data = NioFileUtils.read(getOldFilePath(id));
+				return Files.newInputStream(getOldFilePath(id));
 			}
+		} finally {
+			lock.unlock();
 		}
+	}
 
-		return getFileFormat().fromString(data, clazz);
+	/**
+	 * @return count of reads without the lock which had to be repeated in the lock due to concurrent tx
+	 */
+	public long getOptimisticReadFailures() {
+		return optimisticReadFailures.sum();
 	}
 
 	@Override
 	public void delete(ID id, TxContext context) throws IOException {
 		final Path path = getFilePath(id);
 
-		synchronized (pojoDB.intern(path)) {
-			NioFileUtils.delete(path);
+		final LockManager.Handle lock = pojoDB.getLockManager().writeLock(path);
+		try {
+			NioFileUtils.delete(path, durability);
+
+			//without tx it's committed immediately
+			if (isInCurrentTx(id) == false) {
+				updateCommittedId(id, false);
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -170,7 +258,8 @@ public class ImmediateFlushStorageBackend<ID> implements IStorageBackend<ID> {
 		final Path original = getFilePath(id);
 		final Path backup = getOldFilePath(id);
 
-		synchronized (pojoDB.intern(original)) {
+		final LockManager.Handle lock = pojoDB.getLockManager().writeLock(original);
+		try {
 			final boolean originalExists = NioFileUtils.exists(original);
 			final boolean backupExists = NioFileUtils.exists(backup);
 
@@ -182,7 +271,7 @@ public class ImmediateFlushStorageBackend<ID> implements IStorageBackend<ID> {
 			}
 			//rollback from empty backup means correct rollback of CREATE
 			else if (backupExists == false) {
-				NioFileUtils.delete(original);
+				NioFileUtils.delete(original, durability);
 			}
 			//rollback from backup to existing original means correct rollback of UPDATE
 			//rollback from backup to empty original means correct rollback of DELETE
@@ -190,31 +279,73 @@ public class ImmediateFlushStorageBackend<ID> implements IStorageBackend<ID> {
 				final Path newFilePath = getNewFilePath(id);
 
 				//atomic operation, read will always read good in newFilePath
-				NioFileUtils.copy(backup, newFilePath);
-				NioFileUtils.rename(newFilePath, original);
+				NioFileUtils.copy(backup, newFilePath, durability);
+				NioFileUtils.rename(newFilePath, original, durability);
 			}
+		} finally {
+			lock.unlock();
 		}
 
 	}
 
+	/**
+	 * @return live view of committed ids, it's not copied, so iteration sees concurrent commits or not
+	 */
 	@Override
 	public Set<ID> findAllIds() {
+		return Collections.unmodifiableSet(committedIds);
+	}
+
+	@Override
+	public Stream<ID> streamAllIds() {
+		return committedIds.stream();
+	}
+
+	@Override
+	public long count() {
+		return committedCount.sum();
+	}
+
+	/**
+	 * Lists committed items from the folders of the layout, used only on start to build the registry of ids.
+	 * Sub folders of sharded layout are scanned in parallel.
+	 */
+	private Set<String> listCommittedIds() {
+		final List<Path> directories;
+		try {
+			directories = directoryLayout.listDirectories(getRepositoryPath());
+		} catch (IOException e) {
+			throw new IllegalArgumentException(LogUtil.build("Could not list collection: {}", collectionName), e);
+		}
+
+		createdDirectories.addAll(directories);
+
+		return directories.parallelStream()
+				.flatMap(this::listCommittedIds)
+				.collect(Collectors.toSet());
+	}
+
+	private Stream<String> listCommittedIds(Path directory) {
 		//return all files in collection folder
 		//so there could be even uncommitted changes, .old and .new files
 		//and from them we want only committed data
-		final List<File> allFiles = Arrays.asList(getRepositoryPath().toFile().listFiles());
+		final List<Path> allFiles = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			stream.forEach(allFiles::add);
+		} catch (IOException e) {
+			throw new IllegalArgumentException(LogUtil.build("Could not list collection: {}", collectionName), e);
+		}
 
 		return allFiles.stream()
-				.map(file -> {
-					final Path path = file.toPath();
-
+				.map(path -> {
 					if (!NioFileUtils.exists(path)) return null;
 
-					final String fileName = file.getName();
+					final String fileName = path.getFileName().toString();
 					final String id = getBaseNameWithoutAnyExtension(fileName);
+					if (id == null) return null;
 
 					//ok, it not belongs to any outgoing transaction
-					if (isInCurrentTxByString(id) == false) return id;
+					if (isInCurrentTx(idCreator.apply(id)) == false) return id;
 
 					//uncommitted CREATE => .new exists, .old does not exists and file could exists with value or not
 					//uncommitted UPDATE => .new exists, .old exists and file exists with old or new value
@@ -223,15 +354,14 @@ public class ImmediateFlushStorageBackend<ID> implements IStorageBackend<ID> {
 					//so safest way is to look for .old file, so it will filter uncommitted CREATEs and DELETEs (we are listing even .old and .new files)
 
 					final Path oldFilePath = getOldFilePathByString(id);
-					if (allFiles.contains(oldFilePath.toFile())) {
+					if (Files.exists(oldFilePath)) {
 						return id;
 					}
 					return null;
 				})
 				.filter(Objects::nonNull)
-				.sorted()
-				.map(idCreator)
-				.collect(Collectors.toCollection(LinkedHashSet::new));
+				//item with .old and .new files is listed more times
+				.distinct();
 	}
 
 	@Override
@@ -239,7 +369,8 @@ public class ImmediateFlushStorageBackend<ID> implements IStorageBackend<ID> {
 		final Path original = getFilePath(id);
 		final Path backup = getOldFilePath(id);
 
-		synchronized (pojoDB.intern(original)) {
+		final LockManager.Handle lock = pojoDB.getLockManager().writeLock(original);
+		try {
 			final boolean exists = NioFileUtils.exists(original);
 			if (!exists) {
 				logger.trace("File {} not exists, have nothing to backup.", original);
@@ -250,70 +381,42 @@ public class ImmediateFlushStorageBackend<ID> implements IStorageBackend<ID> {
 			if (exists && isInCurrentTx(id) == false) {
 				final Path newFilePath = getNewFilePath(id);
 
-				NioFileUtils.copy(original, newFilePath);
-				NioFileUtils.rename(newFilePath, backup);
+				NioFileUtils.copy(original, newFilePath, durability);
+				NioFileUtils.rename(newFilePath, backup, durability);
 			}
 
 			//here I know that there is .old file and I could rely on it
 			incrementTxCount(id);
-		}
-	}
-
-	private void incrementTxCountByString(String id) {
-		currentTxCountLock.writeLock().lock();
-		try {
-			if (currentTxCount.containsKey(id)) {
-				Integer count = currentTxCount.get(id);
-				if (count == null) throw new IllegalStateException("Could not read tx count");
-				currentTxCount.put(id, ++count);
-			} else {
-				currentTxCount.put(id, 1);
-			}
 		} finally {
-			currentTxCountLock.writeLock().unlock();
+			lock.unlock();
 		}
 	}
 
 	private void incrementTxCount(ID id) {
-		incrementTxCountByString("" + id);
-	}
-
-	private boolean decrementTxCountByString(String id) {
-		currentTxCountLock.writeLock().lock();
-		try {
-			if (currentTxCount.containsKey(id)) {
-				Integer count = currentTxCount.get(id);
-				if (count == null) throw new IllegalStateException("Could not read tx count");
-				else if (count == 1) {
-					currentTxCount.remove(id);
-					return true;
-				} else {
-					currentTxCount.put(id, --count);
-					return false;
-				}
-			} else {
-				return false;
-			}
-		} finally {
-			currentTxCountLock.writeLock().unlock();
-		}
+		currentTxCount.merge(id, 1, Integer::sum);
+		txCountStamp.incrementAndGet();
 	}
 
+	/**
+	 * Counts of the item are changed only in the write lock of the item, so the count could not change between the check and the update
+	 *
+	 * @return true when the last current tx of the item is finished
+	 */
 	private boolean decrementTxCount(ID id) {
-		return decrementTxCountByString("" + id);
+		if (currentTxCount.containsKey(id) == false) return false;
+
+		final Integer count = currentTxCount.computeIfPresent(id, (key, current) -> current == 1 ? null : current - 1);
+		txCountStamp.incrementAndGet();
+
+		return count == null;
 	}
 
-	private boolean isInCurrentTx(ID id) {
-		return isInCurrentTxByString("" + id);
+	private boolean isInCurrentTxCount(ID id, int count) {
+		return Objects.equals(currentTxCount.get(id), count);
 	}
 
-	private boolean isInCurrentTxByString(String id) {
-		currentTxCountLock.readLock().lock();
-		try {
-			return currentTxCount.containsKey(id);
-		} finally {
-			currentTxCountLock.readLock().unlock();
-		}
+	private boolean isInCurrentTx(ID id) {
+		return currentTxCount.containsKey(id);
 	}
 
 	@Override
@@ -321,12 +424,18 @@ public class ImmediateFlushStorageBackend<ID> implements IStorageBackend<ID> {
 		final Path original = getFilePath(id);
 		final Path backup = getOldFilePath(id);
 
-		synchronized (pojoDB.intern(original)) {
+		final LockManager.Handle lock = pojoDB.getLockManager().writeLock(original);
+		try {
 			final boolean exists = NioFileUtils.exists(backup);
 			if (!exists) {
 				logger.trace("File {} not exists, have nothing to clear.", backup);
 			}
 
+			//the last tx of the item publishes its committed or rolled back state
+			if (isInCurrentTxCount(id, 1)) {
+				updateCommittedId(id, NioFileUtils.exists(original));
+			}
+
 			//delete backup file if I am last one who is using it in current tx list
 			if (decrementTxCount(id)) {
 				//decrement counter even if file does not exists
@@ -334,6 +443,8 @@ public class ImmediateFlushStorageBackend<ID> implements IStorageBackend<ID> {
 					NioFileUtils.delete(backup);
 				}
 			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -347,11 +458,12 @@ public class ImmediateFlushStorageBackend<ID> implements IStorageBackend<ID> {
 	}
 
 	@Override
-	public void save(ID id, String data, TxContext context) throws IOException {
+	public void save(ID id, byte[] data, TxContext context) throws IOException {
 		final Path path = getFilePath(id);
 		final Path newPath = getNewFilePath(id);
 
-		synchronized (pojoDB.intern(path)) {
+		final LockManager.Handle lock = pojoDB.getLockManager().writeLock(path);
+		try {
 
 			//this is very tricky part :-)
 
@@ -361,28 +473,47 @@ public class ImmediateFlushStorageBackend<ID> implements IStorageBackend<ID> {
 			//and when you are done, rename .new file to the original file, so reader will have always good variant
 
 			//and about current tx counter, there is no need to synchronize 2 threads from both saving to .new
-			//because of this synchronized block
+			//because of the write lock of the item
+
+			createDirectory(path.getParent());
+
+			NioFileUtils.save(newPath, data, durability);
+			NioFileUtils.rename(newPath, path, durability);
 
-			NioFileUtils.save(newPath, data);
-			NioFileUtils.rename(newPath, path);
+			//without tx it's committed immediately
+			if (isInCurrentTx(id) == false) {
+				updateCommittedId(id, true);
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
-	@Override
-	public boolean exists(ID id) {
-		final Path path = getFilePath(id);
+	private void createDirectory(Path directory) throws IOException {
+		if (createdDirectories.contains(directory)) return;
 
-		//there is not any outgoing tx for this file
-		if (isInCurrentTx(id) == false) {
-			return NioFileUtils.exists(path);
-		}
+		Files.createDirectories(directory);
+		NioFileUtils.forceDirectory(directory.getParent(), durability);
+
+		createdDirectories.add(directory);
+	}
 
-		//there is some outgoing operation in progress so prod file could be rollbacked or exists if op is CREATE
-		//so safest way how to read uncommitted data is to test .old file
-		synchronized (pojoDB.intern(path)) {
-			final Path oldFilePath = getOldFilePath(id);
-			return NioFileUtils.exists(oldFilePath);
+	private void updateCommittedId(ID id, boolean exists) {
+		if (exists) {
+			if (committedIds.add(id)) {
+				committedCount.increment();
+			}
+		} else {
+			if (committedIds.remove(id)) {
+				committedCount.decrement();
+			}
 		}
 	}
 
+	@Override
+	public boolean exists(ID id) {
+		//committed state is kept until the last outgoing tx of the item is finished, so it's same as existence of .old file during tx
+		return committedIds.contains(id);
+	}
+
 }
@@ -0,0 +1,646 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import global.simpleway.pojodb.PojoDB;
+import global.simpleway.pojodb.format.IFileFormatStrategy;
+import global.simpleway.pojodb.repository.NioFileUtils;
+import global.simpleway.pojodb.repository.TxContext;
+import global.simpleway.pojodb.utils.LogUtil;
+
+/**
+ * Every committed record is appended to the active segment file of the collection, there is no file per item.
+ * <p>
+ * <ul>
+ * <li>in memory index points from id to the last record (segment, offset) of the item</li>
+ * <li>backup of an item is just the pointer to its last committed record, rollback appends that record again</li>
+ * <li>segments with mostly dead records are rewritten by background compaction</li>
+ * <li>on start all segments are scanned in order and torn tail of the last segment is truncated, corrupted sealed segment fails the start</li>
+ * </ul>
+ * Record frame: [int body length][int crc32 of body][byte type][int id length][id][data]
+ */
+public class LogStructuredStorageBackend<ID> implements IStorageBackend<ID> {
+
+	private static final Logger logger = LoggerFactory.getLogger(LogStructuredStorageBackend.class);
+
+	public static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+	public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+	public static final long DEFAULT_COMPACTION_INTERVAL_SECONDS = 30;
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_EXTENSION = ".log";
+
+	private static final int HEADER_SIZE = 8;
+
+	private static final byte PUT = 1;
+	private static final byte DELETE = 2;
+
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	private final PojoDB pojoDB;
+
+	//name of the collection as folder
+	private final String collectionName;
+
+	//file format of the collection
+	private final IFileFormatStrategy fileFormatStrategy;
+
+	private final Function<String, ID> idCreator;
+
+	//what is forced to the disk on every append
+	private final Durability durability;
+
+	private final long maxSegmentSize;
+
+	//segment files ordered by its sequence, last one is the active one
+	private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+	//id of the item to its last record
+	private final ConcurrentMap<String, Location> index = new ConcurrentHashMap<>();
+
+	//id of the item to its last committed record when some tx is in progress, Location.ABSENT for CREATE
+	private final Map<String, Location> backups = new HashMap<>();
+
+	//map of item ids to count of outgoing txs
+	private final Map<String, Integer> currentTxCount = new HashMap<>();
+
+	//reads are sharing the lock, appends, tx bookkeeping and compaction are exclusive
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final ScheduledExecutorService compactionExecutor;
+
+	public LogStructuredStorageBackend(PojoDB pojoDB, String collectionName, IFileFormatStrategy fileFormatStrategy, Function<String, ID> idCreator) {
+		this(pojoDB, collectionName, fileFormatStrategy, idCreator, DEFAULT_MAX_SEGMENT_SIZE, DEFAULT_COMPACTION_THRESHOLD, DEFAULT_COMPACTION_INTERVAL_SECONDS);
+	}
+
+	/**
+	 * @param maxSegmentSize size in bytes after which the active segment is sealed and new one is created
+	 * @param compactionThreshold sealed segment is compacted when ratio of its live bytes drops under this value
+	 * @param compactionIntervalSeconds period of background compaction, 0 disables it
+	 */
+	public LogStructuredStorageBackend(PojoDB pojoDB, String collectionName, IFileFormatStrategy fileFormatStrategy, Function<String, ID> idCreator, long maxSegmentSize,
+			double compactionThreshold, long compactionIntervalSeconds) {
+		this.pojoDB = pojoDB;
+		this.collectionName = collectionName;
+		this.fileFormatStrategy = fileFormatStrategy;
+		this.idCreator = idCreator;
+		this.durability = pojoDB.getDurability();
+		this.maxSegmentSize = maxSegmentSize;
+
+		open();
+
+		if (compactionIntervalSeconds > 0) {
+			this.compactionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+				final Thread thread = new Thread(r, "pojodb-compaction-" + collectionName);
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.compactionExecutor.scheduleWithFixedDelay(() -> {
+				try {
+					compact(compactionThreshold);
+				} catch (IOException | RuntimeException e) {
+					logger.warn("Could not compact collection: {}", collectionName, e);
+				}
+			}, compactionIntervalSeconds, compactionIntervalSeconds, TimeUnit.SECONDS);
+		} else {
+			this.compactionExecutor = null;
+		}
+	}
+
+	private Path getRepositoryPath() {
+		return pojoDB.getStoragePath().resolve(collectionName);
+	}
+
+	private Path getSegmentPath(long sequence) {
+		return getRepositoryPath().resolve(SEGMENT_PREFIX + String.format("%010d", sequence) + SEGMENT_EXTENSION);
+	}
+
+	private void open() {
+		try {
+			Files.createDirectories(getRepositoryPath());
+
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(getRepositoryPath(), SEGMENT_PREFIX + "*" + SEGMENT_EXTENSION)) {
+				for (Path path : stream) {
+					final String fileName = path.getFileName().toString();
+					final long sequence = Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_EXTENSION.length()));
+
+					segments.put(sequence, new Segment(sequence, path));
+				}
+			}
+
+			for (Segment segment : segments.values()) {
+				replay(segment, segment == segments.lastEntry().getValue());
+			}
+
+			if (segments.isEmpty()) {
+				createSegment(1);
+			}
+		} catch (IOException | NumberFormatException e) {
+			final IllegalArgumentException exception = new IllegalArgumentException(LogUtil.build("Could not open collection: {}", collectionName), e);
+
+			//collection is not usable, so release already opened segments
+			for (Segment segment : segments.values()) {
+				try {
+					segment.channel.close();
+				} catch (IOException closeException) {
+					exception.addSuppressed(closeException);
+				}
+			}
+			throw exception;
+		}
+	}
+
+	/**
+	 * Rebuilds index from one segment, the last record of the item wins. Scanning stops on first corrupted frame. Only
+	 * the rest of the last segment is truncated as it could be only unfinished append, sealed segments were complete,
+	 * so their records after the corrupted frame could be the only copy of committed items.
+	 */
+	private void replay(Segment segment, boolean last) throws IOException {
+		final long size = segment.channel.size();
+		long position = 0;
+
+		while (position < size) {
+			final Record record = readRecord(segment, position, size);
+			if (record == null) {
+				if (last == false) {
+					throw new IOException(LogUtil.build("Sealed segment {} is corrupted at position {}, restore it from backup", segment.path, position));
+				}
+
+				logger.warn("Segment {} is corrupted at position {}, truncating {} bytes", segment.path, position, size - position);
+				segment.channel.truncate(position);
+				break;
+			}
+
+			if (record.type == PUT) {
+				index.put(record.id, new Location(segment.sequence, position, record.frameLength));
+			} else {
+				index.remove(record.id);
+			}
+
+			position += record.frameLength;
+		}
+
+		segment.size = position;
+	}
+
+	private Segment createSegment(long sequence) throws IOException {
+		final Segment segment = new Segment(sequence, getSegmentPath(sequence));
+		segments.put(sequence, segment);
+
+		NioFileUtils.forceDirectory(getRepositoryPath(), durability);
+
+		return segment;
+	}
+
+	private Segment getActiveSegment() throws IOException {
+		final Segment active = segments.lastEntry().getValue();
+
+		if (active.size < maxSegmentSize) return active;
+
+		//seal current one and continue in the next segment
+		return createSegment(active.sequence + 1);
+	}
+
+	private static String toKey(Object id) {
+		return "" + id;
+	}
+
+	@Override
+	public Set<ID> findAllIds() {
+		lock.readLock().lock();
+		try {
+			//committed view, so for items in tx the backup decides
+			final Set<String> ids = index.keySet().stream()
+					.filter(id -> currentTxCount.containsKey(id) == false)
+					.collect(Collectors.toSet());
+
+			backups.forEach((id, location) -> {
+				if (location != Location.ABSENT) ids.add(id);
+			});
+
+			return ids.stream()
+					.sorted()
+					.map(idCreator)
+					.collect(Collectors.toCollection(LinkedHashSet::new));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void backup(ID id, TxContext txContext) throws IOException {
+		final String key = toKey(id);
+
+		lock.writeLock().lock();
+		try {
+			//remember pointer only for the first current tx, others would remember partially committed record
+			if (currentTxCount.containsKey(key) == false) {
+				backups.put(key, index.getOrDefault(key, Location.ABSENT));
+			}
+
+			currentTxCount.merge(key, 1, Integer::sum);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void clearBackup(ID id, TxContext context) throws IOException {
+		final String key = toKey(id);
+
+		lock.writeLock().lock();
+		try {
+			final Integer count = currentTxCount.get(key);
+			if (count == null) {
+				logger.trace("Item {} is not in any tx, have nothing to clear.", key);
+				return;
+			}
+
+			//forget backup if I am last one who is using it
+			if (count == 1) {
+				currentTxCount.remove(key);
+				backups.remove(key);
+			} else {
+				currentTxCount.put(key, count - 1);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void save(ID id, byte[] data, TxContext context) throws IOException {
+		final String key = toKey(id);
+
+		lock.writeLock().lock();
+		try {
+			index.put(key, append(PUT, key, ByteBuffer.wrap(data)));
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean exists(ID id) {
+		final String key = toKey(id);
+
+		lock.readLock().lock();
+		try {
+			if (currentTxCount.containsKey(key)) {
+				return backups.get(key) != Location.ABSENT;
+			}
+
+			return index.containsKey(key);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Object read(ID id, Class<?> clazz) throws IOException {
+		final String key = toKey(id);
+		final ByteBuffer data;
+
+		lock.readLock().lock();
+		try {
+			//ok so it's somewhere between backup() and clearBackup(), read last committed record
+			final Location location = currentTxCount.containsKey(key) ? backups.get(key) : index.get(key);
+
+			if (location == null || location == Location.ABSENT) {
+				throw new NoSuchFileException(LogUtil.build("Item {} not exists in collection {}", key, collectionName));
+			}
+
+			data = readRecord(location).data;
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		return getFileFormat().fromBytes(data, clazz);
+	}
+
+	@Override
+	public void delete(ID id, TxContext context) throws IOException {
+		final String key = toKey(id);
+
+		lock.writeLock().lock();
+		try {
+			append(DELETE, key, EMPTY);
+			index.remove(key);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public IFileFormatStrategy getFileFormat() {
+		return fileFormatStrategy;
+	}
+
+	@Override
+	public void rollback(ID id, TxContext context) throws IOException {
+		final String key = toKey(id);
+
+		lock.writeLock().lock();
+		try {
+			final Location backup = backups.get(key);
+
+			if (backup == null) {
+				logger.warn("Backup of {} in collection {} not exists, have nothing to rollback.", key, collectionName);
+				return;
+			}
+			//rollback of CREATE
+			else if (backup == Location.ABSENT) {
+				if (index.containsKey(key)) {
+					append(DELETE, key, EMPTY);
+					index.remove(key);
+				}
+			}
+			//rollback of UPDATE or DELETE, append last committed record again so it's the last one even after restart
+			else if (backup.equals(index.get(key)) == false) {
+				index.put(key, append(PUT, key, readRecord(backup).data));
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Rewrites live records of sealed segments which are mostly garbage to the active segment and deletes them.
+	 * Segments with records used as a backup of outgoing tx are skipped.
+	 *
+	 * @param threshold segments with lower ratio of live bytes are compacted
+	 * @throws IOException
+	 */
+	public void compact(double threshold) throws IOException {
+		lock.writeLock().lock();
+		try {
+			final Map<Long, Long> liveBytes = new HashMap<>();
+			index.values().forEach(l -> liveBytes.merge(l.segment, (long) l.length, Long::sum));
+
+			final Set<Long> pinned = backups.values().stream()
+					.filter(l -> l != Location.ABSENT)
+					.map(l -> l.segment)
+					.collect(Collectors.toSet());
+
+			final long activeSequence = segments.lastKey();
+
+			for (Segment segment : segments.values().toArray(new Segment[0])) {
+				if (segment.sequence == activeSequence || pinned.contains(segment.sequence)) continue;
+
+				final long live = liveBytes.getOrDefault(segment.sequence, 0L);
+				if (segment.size > 0 && (double) live / segment.size >= threshold) continue;
+
+				compactSegment(segment);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void compactSegment(Segment segment) throws IOException {
+		final boolean oldest = segments.firstKey() == segment.sequence;
+		long position = 0;
+		//last copied record, every other one was forced by append already
+		Location copied = null;
+
+		while (position < segment.size) {
+			final Record record = readRecord(segment, position, segment.size);
+			if (record == null) {
+				throw new IOException(LogUtil.build("Segment {} is corrupted at position {}", segment.path, position));
+			}
+
+			final Location current = index.get(record.id);
+
+			if (record.type == PUT && current != null && current.segment == segment.sequence && current.offset == position) {
+				copied = append(PUT, record.id, record.data);
+				index.put(record.id, copied);
+			}
+			//tombstone must survive while some older segment could contain the deleted item
+			else if (record.type == DELETE && current == null && oldest == false) {
+				copied = append(DELETE, record.id, record.data);
+			}
+
+			position += record.frameLength;
+		}
+
+		//copied records must be on the disk before the original is gone
+		if (copied != null) {
+			durability.force(segments.get(copied.segment).channel);
+		}
+
+		segments.remove(segment.sequence);
+		segment.channel.close();
+		NioFileUtils.delete(segment.path, durability);
+
+		logger.debug("Segment {} of collection {} compacted", segment.path, collectionName);
+	}
+
+	private Location append(byte type, String id, ByteBuffer data) throws IOException {
+		final byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+
+		final ByteBuffer body = ByteBuffer.allocate(1 + 4 + idBytes.length + data.remaining());
+		body.put(type);
+		body.putInt(idBytes.length);
+		body.put(idBytes);
+		body.put(data.duplicate());
+		body.flip();
+
+		final CRC32 crc = new CRC32();
+		crc.update(body.array());
+
+		final ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + body.remaining());
+		frame.putInt(body.remaining());
+		frame.putInt((int) crc.getValue());
+		frame.put(body);
+		frame.flip();
+
+		final Segment segment = getActiveSegment();
+		final long position = segment.size;
+		final int length = frame.remaining();
+
+		while (frame.hasRemaining()) {
+			segment.channel.write(frame, position + frame.position());
+		}
+		segment.size += length;
+
+		durability.force(segment.channel);
+
+		return new Location(segment.sequence, position, length);
+	}
+
+	private Record readRecord(Location location) throws IOException {
+		final Segment segment = segments.get(location.segment);
+		if (segment == null) throw new IOException(LogUtil.build("Segment {} of collection {} not exists", location.segment, collectionName));
+
+		final Record record = readRecord(segment, location.offset, location.offset + location.length);
+		if (record == null) throw new IOException(LogUtil.build("Corrupted record {} in collection {}", location, collectionName));
+
+		return record;
+	}
+
+	/**
+	 * @return record or null when the frame is incomplete or corrupted
+	 */
+	private static Record readRecord(Segment segment, long position, long limit) throws IOException {
+		if (limit - position < HEADER_SIZE) return null;
+
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(segment.channel, header, position);
+		header.flip();
+
+		final int bodyLength = header.getInt();
+		final int checksum = header.getInt();
+
+		if (bodyLength < 5 || bodyLength > limit - position - HEADER_SIZE) return null;
+
+		final ByteBuffer body = ByteBuffer.allocate(bodyLength);
+		readFully(segment.channel, body, position + HEADER_SIZE);
+		body.flip();
+
+		final CRC32 crc = new CRC32();
+		crc.update(body.array());
+		if ((int) crc.getValue() != checksum) return null;
+
+		final byte type = body.get();
+		final int idLength = body.getInt();
+		if (type != PUT && type != DELETE || idLength < 0 || idLength > body.remaining()) return null;
+
+		final byte[] id = new byte[idLength];
+		body.get(id);
+		//data are not copied, record keeps view of the body
+		final ByteBuffer data = body.slice();
+
+		return new Record(type, new String(id, StandardCharsets.UTF_8), data, HEADER_SIZE + bodyLength);
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, position + buffer.position());
+			if (read < 0) throw new IOException("Unexpected end of segment");
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (compactionExecutor != null) {
+			compactionExecutor.shutdownNow();
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (Segment segment : segments.values()) {
+				segment.channel.close();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private static final class Segment {
+
+		private final long sequence;
+		private final Path path;
+		private final FileChannel channel;
+
+		//end of the last valid record, appends are going here
+		private long size;
+
+		private Segment(long sequence, Path path) throws IOException {
+			this.sequence = sequence;
+			this.path = path;
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.size = channel.size();
+		}
+	}
+
+	private static final class Location {
+
+		private static final Location ABSENT = new Location(-1, -1, 0);
+
+		private final long segment;
+		private final long offset;
+		private final int length;
+
+		private Location(long segment, long offset, int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof Location)) return false;
+			final Location location = (Location) o;
+			return segment == location.segment && offset == location.offset && length == location.length;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(segment, offset, length);
+		}
+
+		@Override
+		public String toString() {
+			return segment + ":" + offset + "+" + length;
+		}
+	}
+
+	private static final class Record {
+
+		private final byte type;
+		private final String id;
+		private final ByteBuffer data;
+		private final int frameLength;
+
+		private Record(byte type, String id, ByteBuffer data, int frameLength) {
+			this.type = type;
+			this.id = id;
+			this.data = data;
+			this.frameLength = frameLength;
+		}
+	}
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb.storage;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Sub folder is named by the first characters of the id, suitable for random ids like uuids
+ */
+public class PrefixDirectoryLayout extends AShardedDirectoryLayout {
+
+	private final int length;
+
+	public PrefixDirectoryLayout(int length) {
+		Preconditions.checkArgument(length > 0, "Length of the prefix must be positive");
+
+		this.length = length;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	@Override
+	protected String getShard(String id) {
+		return id.length() <= length ? id : id.substring(0, length);
+	}
+
+}
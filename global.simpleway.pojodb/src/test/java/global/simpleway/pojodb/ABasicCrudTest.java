@@ -18,9 +18,12 @@ package global.simpleway.pojodb;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.assertj.core.api.Assertions;
 import org.junit.Test;
@@ -92,9 +95,77 @@ public abstract class ABasicCrudTest {
 
 		Assertions.assertThat(allById).hasSize(2);
 
-		//yes it's sorted by id and not by your input
-		assertThat(allById.get(0)).isEqualTo(p2);
-		assertThat(allById.get(1)).isEqualTo(p3);
+		//in order of the input
+		assertThat(allById.get(0)).isEqualTo(p3);
+		assertThat(allById.get(1)).isEqualTo(p2);
+	}
+
+	@Test
+	public void findAllById_missing() {
+		final Pojo p1 = create(1, "1");
+		final Pojo p2 = create(2, "2");
+
+		repository().saveAll(Arrays.asList(p1, p2));
+
+		final List<String> missing = new ArrayList<>();
+		final List<Pojo> allById = repository().findAllById(Arrays.asList(p2.getId(), "missing", p1.getId(), "missing"), missing::add);
+
+		assertThat(allById).containsExactly(p2, p1);
+		assertThat(missing).containsExactly("missing");
+	}
+
+	@Test
+	public void findAllById_duplicates() {
+		final Pojo p1 = repository().save(create(1, "1"));
+		final Pojo p2 = repository().save(create(2, "2"));
+
+		final List<Pojo> allById = repository().findAllById(Arrays.asList(p2.getId(), p1.getId(), p2.getId()), 2, id -> Assertions.fail("Missing " + id));
+
+		//once per id in order of the first occurrence
+		assertThat(allById).containsExactly(p2, p1);
+	}
+
+	@Test
+	public void findAllById_parallel() {
+		final List<Pojo> pojos = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			pojos.add(repository().save(create(i, String.valueOf(i))));
+		}
+		Collections.reverse(pojos);
+
+		final List<String> ids = pojos.stream().map(Pojo::getId).collect(Collectors.toList());
+
+		assertThat(repository().findAllById(ids, 4, id -> Assertions.fail("Missing " + id))).containsExactlyElementsOf(pojos);
+	}
+
+	@Test
+	public void stream() {
+		final Pojo p1 = create(1, "1");
+		final Pojo p2 = create(2, "2");
+		final Pojo p3 = create(3, "3");
+
+		repository().saveAll(Arrays.asList(p1, p2, p3));
+
+		try (Stream<Pojo> items = repository().stream()) {
+			assertThat(items).containsExactlyInAnyOrder(p1, p2, p3);
+		}
+
+		try (Stream<Pojo> items = repository().stream()) {
+			assertThat(items.limit(2).count()).isEqualTo(2);
+		}
+	}
+
+	@Test
+	public void iterator() {
+		final Pojo p1 = create(1, "1");
+		final Pojo p2 = create(2, "2");
+
+		repository().saveAll(Arrays.asList(p1, p2));
+
+		final List<Pojo> items = new ArrayList<>();
+		repository().iterator().forEachRemaining(items::add);
+
+		assertThat(items).containsExactlyInAnyOrder(p1, p2);
 	}
 
 	@Test
@@ -23,11 +23,8 @@ import java.util.Arrays;
 
 import org.junit.Test;
 
-import global.simpleway.pojodb.format.IFileFormatStrategy;
 import global.simpleway.pojodb.repository.Repository;
 import global.simpleway.pojodb.repository.Tx;
-import global.simpleway.pojodb.repository.TxContext;
-import global.simpleway.pojodb.storage.ImmediateFlushStorageBackend;
 
 public abstract class ATxTest {
 	
@@ -168,41 +165,4 @@ public abstract class ATxTest {
 		assertThat(loaded.getStringValue()).isEqualTo("1");
 	}
 	
-}
-
-class BuggyFileProvider extends ImmediateFlushStorageBackend<String> {
-
-	private boolean buggy;
-	
-	private int counter;
-	
-	public BuggyFileProvider(PojoDB pojoDB, String collectionName, IFileFormatStrategy fileFormatStrategy) {
-		super(pojoDB, collectionName, fileFormatStrategy, s -> s);
-	}
-
-	public void activateHellMachine() {
-		buggy = true;
-	}
-	
-	public void pleaseStahp() {
-		buggy = false;
-	}
-
-	@Override
-	public void save(String id, String data, TxContext context) throws IOException {
-		if (buggy && ++counter % 3 == 0) {
-			throw new IOException("Buggy file provider save");
-		}
-		
-		super.save(id, data, context);
-	}
-
-	@Override
-	public void delete(String id, TxContext context) throws IOException {
-		if (buggy && ++counter % 3 == 0) {
-			throw new IOException("Buggy file provider delete");
-		}
-		
-		super.delete(id, context);
-	}
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import global.simpleway.pojodb.repository.DomainRepository;
+import global.simpleway.pojodb.repository.Repository;
+import global.simpleway.pojodb.storage.CacheDecoratorStorageBackend;
+import global.simpleway.pojodb.storage.CacheOptions;
+
+public class BoundedCacheDecoratorBasicCrudTest extends ABasicCrudTest {
+
+	private static final int MAX_ENTRIES = 2;
+
+	private DomainRepository<Pojo> repository;
+
+	@Before
+	public void before() {
+		final PojoDB pojoDB = PojoDB.builder().withPathInTmpFolder().build();
+		repository = pojoDB.newCachedDomainRepository("pojo", Pojo.class, CacheOptions.builder().withMaxEntries(MAX_ENTRIES).build());
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteQuietly(repository.getPojoDB().getStoragePath().toFile());
+	}
+
+	@Override
+	Repository<Pojo, String> repository() {
+		return repository;
+	}
+
+	private CacheDecoratorStorageBackend<String> backend() {
+		return (CacheDecoratorStorageBackend<String>) repository.getBackend();
+	}
+
+	@Test
+	public void evictedItemsAreReadFromDelegate() {
+		for (int i = 0; i < 10; i++) {
+			repository.save(create(i, "" + i));
+		}
+
+		assertThat(backend().getCachedCount()).isLessThanOrEqualTo(MAX_ENTRIES);
+		assertThat(repository.getBackend().findAllIds()).hasSize(10);
+		assertThat(repository.findAll()).hasSize(10);
+		assertThat(backend().getCachedCount()).isLessThanOrEqualTo(MAX_ENTRIES);
+	}
+
+	@Test
+	public void deletedItemIsNotReadAfterEviction() {
+		final Pojo deleted = create(1, "1");
+		repository.save(deleted);
+		repository.delete(deleted);
+
+		for (int i = 0; i < 5; i++) {
+			repository.save(create(i, "" + i));
+		}
+
+		assertThat(repository.existsById(deleted.getId())).isFalse();
+		assertThat(repository.findOne(deleted.getId())).isNull();
+	}
+
+	@Test
+	public void weightBoundedCacheKeepsAllIds() {
+		final PojoDB pojoDB = PojoDB.builder().withPathInTmpFolder().build();
+		try {
+			final DomainRepository<Pojo> weighted = pojoDB.newCachedDomainRepository("pojo", Pojo.class, CacheOptions.builder().withMaxWeightBytes(100).build());
+
+			for (int i = 0; i < 10; i++) {
+				weighted.save(create(i, "some longer string value " + i));
+			}
+
+			assertThat(weighted.getBackend().findAllIds()).hasSize(10);
+			assertThat(weighted.findAll()).hasSize(10);
+			assertThat(((CacheDecoratorStorageBackend<?>) weighted.getBackend()).getCachedCount()).isLessThan(10);
+		} finally {
+			FileUtils.deleteQuietly(pojoDB.getStoragePath().toFile());
+		}
+	}
+
+	@Test
+	public void shouldLoadOnlyIdsOnStart() {
+		final Pojo pojo = create(1, "1");
+		repository.save(pojo);
+
+		final PojoDB pojoDB = PojoDB.builder().withPath(repository.getPojoDB().getStoragePath()).build();
+		repository = pojoDB.newCachedDomainRepository("pojo", Pojo.class, CacheOptions.builder().withMaxEntries(MAX_ENTRIES).build());
+
+		assertThat(backend().getCachedCount()).isZero();
+		assertThat(repository.existsById(pojo.getId())).isTrue();
+		assertThat(repository.findOne(pojo.getId())).isEqualTo(pojo);
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb;
+
+import java.io.IOException;
+
+import global.simpleway.pojodb.format.IFileFormatStrategy;
+import global.simpleway.pojodb.repository.TxContext;
+import global.simpleway.pojodb.storage.ImmediateFlushStorageBackend;
+
+class BuggyFileProvider extends ImmediateFlushStorageBackend<String> {
+
+	private boolean buggy;
+	
+	private int counter;
+	
+	public BuggyFileProvider(PojoDB pojoDB, String collectionName, IFileFormatStrategy fileFormatStrategy) {
+		super(pojoDB, collectionName, fileFormatStrategy, s -> s);
+	}
+
+	public void activateHellMachine() {
+		buggy = true;
+	}
+	
+	public void pleaseStahp() {
+		buggy = false;
+	}
+
+	@Override
+	public void save(String id, byte[] data, TxContext context) throws IOException {
+		if (buggy && ++counter % 3 == 0) {
+			throw new IOException("Buggy file provider save");
+		}
+		
+		super.save(id, data, context);
+	}
+
+	@Override
+	public void delete(String id, TxContext context) throws IOException {
+		if (buggy && ++counter % 3 == 0) {
+			throw new IOException("Buggy file provider delete");
+		}
+		
+		super.delete(id, context);
+	}
+}
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
@@ -29,12 +30,15 @@ import global.simpleway.pojodb.bo.QueueItem;
 import global.simpleway.pojodb.bo.User;
 import global.simpleway.pojodb.format.IFileFormatStrategy;
 import global.simpleway.pojodb.format.JsonFileFormatStrategy;
+import global.simpleway.pojodb.format.SmileFileFormatStrategy;
 import global.simpleway.pojodb.format.YamlFileFormatStrategy;
 import global.simpleway.pojodb.id.LongCounterIdGenerator;
 import global.simpleway.pojodb.id.ProvidedIdGenerator;
 import global.simpleway.pojodb.id.UuidIdGenerator;
+import global.simpleway.pojodb.lock.LockManager;
 import global.simpleway.pojodb.repository.DomainRepository;
 import global.simpleway.pojodb.repository.TxContext;
+import global.simpleway.pojodb.storage.Durability;
 import global.simpleway.pojodb.storage.IStorageBackend;
 import global.simpleway.pojodb.storage.ImmediateFlushStorageBackend;
 
@@ -46,13 +50,33 @@ public class BuilderTest {
 
 		assertThat(pojoDB.getStoragePath()).isEqualTo(Paths.get("."));
 
-		assertThat(pojoDB.getDefaultIdGenerator().getClass()).isEqualTo(LongCounterIdGenerator.class);
+		assertThat(pojoDB.newIdGenerator("pojo").getClass()).isEqualTo(LongCounterIdGenerator.class);
 		assertThat(pojoDB.getRedoLogIdGenerator().getClass()).isEqualTo(LongCounterIdGenerator.class);
 
 		assertThat(pojoDB.getDefaultFileFormat().getClass()).isEqualTo(JsonFileFormatStrategy.class);
+		assertThat(pojoDB.getRedoLogFileFormat().getClass()).isEqualTo(SmileFileFormatStrategy.class);
+	}
+
+	@Test
+	public void redoLogFileFormatIsIndependent() {
+		final PojoDB pojoDB = PojoDB.builder().withYamlFileFormat().withRedoLogFileFormat(new JsonFileFormatStrategy()).build();
+
+		assertThat(pojoDB.getDefaultFileFormat().getClass()).isEqualTo(YamlFileFormatStrategy.class);
 		assertThat(pojoDB.getRedoLogFileFormat().getClass()).isEqualTo(JsonFileFormatStrategy.class);
 	}
 
+	@Test
+	public void groupCommitKeepsStrongerDurability() {
+		assertThat(PojoDB.builder().withGroupCommit(1, TimeUnit.MILLISECONDS).build().getDurability()).isEqualTo(Durability.BATCH);
+		assertThat(PojoDB.builder().withDurability(Durability.FSYNC).withGroupCommit(1, TimeUnit.MILLISECONDS).build().getDurability()).isEqualTo(Durability.FSYNC);
+	}
+
+	@Test
+	public void lockStripes() {
+		assertThat(PojoDB.builder().build().getLockManager().getStripes()).isEqualTo(LockManager.DEFAULT_STRIPES);
+		assertThat(PojoDB.builder().withLockStripes(16).build().getLockManager().getStripes()).isEqualTo(16);
+	}
+
 	@Test
 	public void differentRepositoriesHasDifferentStorageAndIdStrategy() {
 		final PojoDB pojoDB = PojoDB.builder().build();
@@ -92,7 +116,7 @@ class DummyBackend implements IStorageBackend<String> {
 	}
 
 	@Override
-	public void save(String id, String data, TxContext context) throws IOException {
+	public void save(String id, byte[] data, TxContext context) throws IOException {
 
 	}
 
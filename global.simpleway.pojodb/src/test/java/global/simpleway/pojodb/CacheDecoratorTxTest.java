@@ -19,6 +19,13 @@ package global.simpleway.pojodb;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
@@ -30,8 +37,11 @@ import global.simpleway.pojodb.format.JsonFileFormatStrategy;
 import global.simpleway.pojodb.id.LongCounterIdGenerator;
 import global.simpleway.pojodb.repository.DomainRepository;
 import global.simpleway.pojodb.repository.Repository;
+import global.simpleway.pojodb.repository.SaveWriteCommand;
 import global.simpleway.pojodb.repository.Tx;
+import global.simpleway.pojodb.repository.TxContext;
 import global.simpleway.pojodb.storage.CacheDecoratorStorageBackend;
+import global.simpleway.pojodb.storage.ImmediateFlushStorageBackend;
 
 public class CacheDecoratorTxTest extends ATxTest {
 
@@ -55,6 +65,96 @@ public class CacheDecoratorTxTest extends ATxTest {
 
 	//all tests are from superclass
 
+	@Test
+	public void overlappingTxsFinishedInReverseOrder() throws IOException {
+		final Pojo pojo = repository().save(create(1, "1"));
+
+		final SaveWriteCommand<Pojo, String> first = new SaveWriteCommand<>(copy(pojo, "first"), Pojo::getId);
+		final SaveWriteCommand<Pojo, String> second = new SaveWriteCommand<>(copy(pojo, "second"), Pojo::getId);
+		final TxContext firstContext = context("first");
+		final TxContext secondContext = context("second");
+
+		first.prepare(repository());
+		second.prepare(repository());
+		first.backup(repository(), firstContext);
+		second.backup(repository(), secondContext);
+		first.commit(repository(), firstContext);
+		second.commit(repository(), secondContext);
+
+		//the second one finished first, but the file holds its content
+		second.clearBackup(repository(), secondContext);
+		first.clearBackup(repository(), firstContext);
+
+		assertThat(repository().findOne(pojo.getId()).getStringValue()).isEqualTo("second");
+		assertThat(repository().existsById(pojo.getId())).isTrue();
+	}
+
+	private Pojo copy(Pojo pojo, String stringValue) {
+		final Pojo copy = create(pojo.getIntValue(), stringValue);
+		copy.setId(pojo.getId());
+		return copy;
+	}
+
+	private TxContext context(String opId) {
+		final TxContext context = new TxContext();
+		context.setOpId(opId);
+		return context;
+	}
+
+	@Test
+	public void concurrentWritersCommitIndependently() throws Exception {
+		final int writers = 8;
+		final int items = 50;
+
+		final ExecutorService executor = Executors.newFixedThreadPool(writers);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < writers; i++) {
+				final int writer = i;
+				futures.add(executor.submit(() -> {
+					for (int j = 0; j < items; j++) {
+						final Pojo pojo = repository().save(create(writer, "" + j));
+						if (j % 2 == 1) {
+							repository().delete(pojo);
+						}
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertThat(repository().count()).isEqualTo(writers * items / 2);
+		assertThat(repository().findAll()).allMatch(pojo -> Integer.parseInt(pojo.getStringValue()) % 2 == 0);
+	}
+
+	@Test
+	public void committedObjectIsNotReadFromDelegate() {
+		final PojoDB pojoDB = PojoDB.builder().withPathInTmpFolder().build();
+		final AtomicInteger reads = new AtomicInteger();
+		final ImmediateFlushStorageBackend<String> backend = new ImmediateFlushStorageBackend<String>(pojoDB, "pojo", pojoDB.getDefaultFileFormat(), s -> s) {
+			@Override
+			public Object read(String id, Class<?> clazz) throws IOException {
+				reads.incrementAndGet();
+				return super.read(id, clazz);
+			}
+		};
+		repository = pojoDB.newDomainRepository(Pojo.class, new LongCounterIdGenerator<>(), new CacheDecoratorStorageBackend<>(backend, Pojo.class));
+
+		final Pojo pojo = repository().save(create(1, "1"));
+		//committed copy is isolated from the saved instance
+		pojo.setIntValue(2);
+
+		final Pojo loaded = repository().findOne(pojo.getId());
+		assertThat(loaded.getIntValue()).isEqualTo(1);
+		assertThat(repository().findOne(pojo.getId())).isSameAs(loaded);
+		assertThat(reads.get()).isZero();
+	}
+
 	@Test
 	public void commit_rollback_dueToError() throws IOException {
 		final PojoDB pojoDB = PojoDB.builder().withPathInTmpFolder().build();
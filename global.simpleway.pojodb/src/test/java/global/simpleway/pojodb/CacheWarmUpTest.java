@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import global.simpleway.pojodb.repository.DomainRepository;
+import global.simpleway.pojodb.storage.CacheDecoratorStorageBackend;
+import global.simpleway.pojodb.storage.CacheOptions;
+import global.simpleway.pojodb.storage.CacheOptions.WarmUp;
+
+public class CacheWarmUpTest {
+
+	private static final int ITEMS = 5;
+
+	private PojoDB pojoDB;
+
+	@Before
+	public void before() {
+		pojoDB = PojoDB.builder().withPathInTmpFolder().build();
+
+		final DomainRepository<Pojo> repository = pojoDB.newDomainRepository("pojo", Pojo.class);
+		for (int i = 0; i < ITEMS; i++) {
+			final Pojo pojo = new Pojo();
+			pojo.setIntValue(i);
+			repository.save(pojo);
+		}
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteQuietly(pojoDB.getStoragePath().toFile());
+	}
+
+	private DomainRepository<Pojo> reopen(WarmUp warmUp) {
+		return reopen(CacheOptions.builder().withWarmUp(warmUp).build());
+	}
+
+	private DomainRepository<Pojo> reopen(CacheOptions cacheOptions) {
+		return PojoDB.builder()
+				.withPath(pojoDB.getStoragePath())
+				.build()
+				.newCachedDomainRepository("pojo", Pojo.class, cacheOptions);
+	}
+
+	private static CacheDecoratorStorageBackend<?> backend(DomainRepository<Pojo> repository) {
+		return (CacheDecoratorStorageBackend<?>) repository.getBackend();
+	}
+
+	@Test
+	public void eagerLoadsAllObjectsOnStart() {
+		final DomainRepository<Pojo> repository = reopen(WarmUp.EAGER);
+
+		assertThat(backend(repository).getCachedCount()).isEqualTo(ITEMS);
+	}
+
+	@Test
+	public void lazyLoadsObjectsOnFirstAccess() {
+		final DomainRepository<Pojo> repository = reopen(WarmUp.LAZY);
+
+		assertThat(backend(repository).getCachedCount()).isZero();
+		//count does not read items
+		assertThat(repository.count()).isEqualTo(ITEMS);
+		assertThat(backend(repository).getCachedCount()).isZero();
+		assertThat(repository.findAll()).hasSize(ITEMS);
+		assertThat(backend(repository).getCachedCount()).isEqualTo(ITEMS);
+
+		//next id continues after the stored ones
+		final Pojo pojo = repository.save(new Pojo());
+		assertThat(repository.count()).isEqualTo(ITEMS + 1);
+		assertThat(repository.findOne(pojo.getId())).isEqualTo(pojo);
+	}
+
+	@Test
+	public void backgroundPreloadsObjects() throws InterruptedException {
+		final DomainRepository<Pojo> repository = reopen(WarmUp.BACKGROUND);
+
+		assertThat(backend(repository).awaitWarmUp(1, TimeUnit.MINUTES)).isTrue();
+		assertThat(backend(repository).getCachedCount()).isEqualTo(ITEMS);
+		assertThat(repository.findAll()).hasSize(ITEMS);
+	}
+
+	@Test
+	public void parallelWarmUpLoadsAllObjects() throws InterruptedException {
+		final DomainRepository<Pojo> eager = reopen(CacheOptions.builder().withWarmUpParallelism(4).build());
+		assertThat(backend(eager).getCachedCount()).isEqualTo(ITEMS);
+		assertThat(eager.findAll()).hasSize(ITEMS);
+
+		final DomainRepository<Pojo> background = reopen(CacheOptions.builder().withWarmUp(WarmUp.BACKGROUND).withWarmUpParallelism(4).build());
+		assertThat(backend(background).awaitWarmUp(1, TimeUnit.MINUTES)).isTrue();
+		assertThat(backend(background).getCachedCount()).isEqualTo(ITEMS);
+	}
+}
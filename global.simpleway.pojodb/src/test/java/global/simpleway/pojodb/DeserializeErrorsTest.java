@@ -141,7 +141,8 @@ public class DeserializeErrorsTest {
 
 		classNotExists(pojo.getId());
 
-		assertThat(repository.count()).isZero();
+		//items are counted without reading
+		assertThat(repository.count()).isEqualTo(1);
 	}
 
 	@Test
@@ -151,7 +152,8 @@ public class DeserializeErrorsTest {
 
 		wrongContent(pojo.getId());
 
-		assertThat(repository.count()).isZero();
+		//items are counted without reading
+		assertThat(repository.count()).isEqualTo(1);
 	}
 
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import global.simpleway.pojodb.repository.DomainRepository;
+import global.simpleway.pojodb.storage.Durability;
+
+public class DurabilityTest {
+
+	@Test
+	public void everyModeKeepsData() {
+		for (Durability durability : Durability.values()) {
+			final PojoDB pojoDB = PojoDB.builder()
+					.withPathInTmpFolder()
+					.withDurability(durability)
+					.build();
+			final Path storagePath = pojoDB.getStoragePath();
+
+			try {
+				assertThat(pojoDB.getDurability()).isEqualTo(durability);
+
+				final DomainRepository<Pojo> repository = pojoDB.newDomainRepository("pojo", Pojo.class);
+				final Pojo kept = new Pojo();
+				kept.setIntValue(1);
+				repository.save(kept);
+				kept.setIntValue(2);
+				repository.save(kept);
+
+				final Pojo deleted = new Pojo();
+				repository.save(deleted);
+				repository.delete(deleted);
+
+				final DomainRepository<Pojo> reopened = PojoDB.builder()
+						.withPath(storagePath)
+						.withDurability(durability)
+						.build()
+						.newDomainRepository("pojo", Pojo.class);
+
+				assertThat(reopened.count()).as("%s", durability).isEqualTo(1);
+				assertThat(reopened.findOne(kept.getId()).getIntValue()).as("%s", durability).isEqualTo(2);
+				assertThat(reopened.getRedoLogService().getAllIncompleteTxs()).isEmpty();
+			} finally {
+				FileUtils.deleteQuietly(storagePath.toFile());
+			}
+		}
+	}
+
+	@Test
+	public void groupCommitUsesBatchDurability() {
+		final PojoDB pojoDB = PojoDB.builder()
+				.withPathInTmpFolder()
+				.withGroupCommit(0, TimeUnit.MILLISECONDS)
+				.build();
+
+		try {
+			assertThat(pojoDB.getDurability()).isEqualTo(Durability.BATCH);
+		} finally {
+			FileUtils.deleteQuietly(pojoDB.getStoragePath().toFile());
+		}
+	}
+}
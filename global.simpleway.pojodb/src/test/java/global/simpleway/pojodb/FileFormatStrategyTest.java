@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import global.simpleway.pojodb.format.CborFileFormatStrategy;
+import global.simpleway.pojodb.format.IFileFormatStrategy;
+import global.simpleway.pojodb.format.JsonFileFormatStrategy;
+import global.simpleway.pojodb.format.SmileFileFormatStrategy;
+import global.simpleway.pojodb.format.YamlFileFormatStrategy;
+
+public class FileFormatStrategyTest {
+
+	private final List<IFileFormatStrategy> strategies = Arrays.asList(new JsonFileFormatStrategy(), new YamlFileFormatStrategy(), new SmileFileFormatStrategy(),
+			new CborFileFormatStrategy());
+
+	private Pojo create() {
+		final Pojo pojo = new Pojo();
+		pojo.setId("1");
+		pojo.setIntValue(123456);
+		pojo.setStringValue("el pojo loco");
+		return pojo;
+	}
+
+	@Test
+	public void bytesRoundTrip() throws IOException {
+		for (IFileFormatStrategy strategy : strategies) {
+			final Pojo pojo = create();
+
+			assertThat(strategy.fromBytes(strategy.toBytes(pojo), Pojo.class)).as(strategy.getFileExtension()).isEqualTo(pojo);
+		}
+	}
+
+	@Test
+	public void stringRoundTrip() throws IOException {
+		for (IFileFormatStrategy strategy : strategies) {
+			final Pojo pojo = create();
+
+			assertThat(strategy.fromString(strategy.toString(pojo), Pojo.class)).as(strategy.getFileExtension()).isEqualTo(pojo);
+		}
+	}
+
+	@Test
+	public void stringIsConvertedToContentOfFile() throws IOException {
+		for (IFileFormatStrategy strategy : strategies) {
+			final Pojo pojo = create();
+
+			assertThat(strategy.stringToBytes(strategy.toString(pojo))).as(strategy.getFileExtension()).isEqualTo(strategy.toBytes(pojo));
+		}
+	}
+
+	@Test
+	public void streamRoundTrip() throws IOException {
+		for (IFileFormatStrategy strategy : strategies) {
+			final Pojo pojo = create();
+
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			strategy.write(pojo, output);
+
+			final ByteArrayInputStream input = new ByteArrayInputStream(output.toByteArray());
+			assertThat(strategy.read(input, Pojo.class)).as(strategy.getFileExtension()).isEqualTo(pojo);
+		}
+	}
+
+	@Test
+	public void byteBufferView() throws IOException {
+		for (IFileFormatStrategy strategy : strategies) {
+			final Pojo pojo = create();
+			final byte[] bytes = strategy.toBytes(pojo);
+
+			//content in the middle of bigger buffer
+			final ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 10);
+			buffer.position(5);
+			buffer.put(bytes);
+			buffer.position(5);
+			buffer.limit(5 + bytes.length);
+
+			assertThat(strategy.fromBytes(buffer.slice(), Pojo.class)).as(strategy.getFileExtension()).isEqualTo(pojo);
+			assertThat(buffer.position()).isEqualTo(5);
+		}
+	}
+
+	@Test
+	public void binaryFormatsAreSmaller() throws IOException {
+		final int json = new JsonFileFormatStrategy().toBytes(create()).length;
+
+		assertThat(new SmileFileFormatStrategy().toBytes(create()).length).isLessThan(json);
+		assertThat(new CborFileFormatStrategy().toBytes(create()).length).isLessThan(json);
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import global.simpleway.pojodb.repository.DomainRepository;
+
+public class GroupCommitTest {
+
+	private static final int THREADS = 8;
+	private static final int SAVES_PER_THREAD = 25;
+
+	private DomainRepository<Pojo> repository;
+
+	@Before
+	public void before() {
+		final PojoDB pojoDB = PojoDB.builder()
+				.withPathInTmpFolder()
+				.withGroupCommit(2, TimeUnit.MILLISECONDS)
+				.build();
+		repository = pojoDB.newDomainRepository("pojo", Pojo.class);
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteQuietly(repository.getPojoDB().getStoragePath().toFile());
+	}
+
+	@Test
+	public void concurrentTxsShareFlush() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < THREADS; t++) {
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < SAVES_PER_THREAD; i++) {
+						final Pojo pojo = new Pojo();
+						pojo.setIntValue(i);
+						repository.save(pojo);
+					}
+				}));
+			}
+
+			for (Future<?> future : futures) {
+				future.get(1, TimeUnit.MINUTES);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertThat(repository.count()).isEqualTo(THREADS * SAVES_PER_THREAD);
+		assertThat(repository.getRedoLogService().getAllIncompleteTxs()).isEmpty();
+
+		final long syncCount = repository.getRedoLogService().getGroupCommitSyncCount();
+		assertThat(syncCount).isPositive().isLessThan(THREADS * SAVES_PER_THREAD);
+	}
+}
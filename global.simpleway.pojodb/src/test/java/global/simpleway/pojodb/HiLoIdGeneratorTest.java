@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import global.simpleway.pojodb.id.HiLoIdGenerator;
+import global.simpleway.pojodb.repository.DomainRepository;
+
+public class HiLoIdGeneratorTest {
+
+	private PojoDB pojoDB;
+
+	@Before
+	public void before() {
+		pojoDB = PojoDB.builder().withPathInTmpFolder().withHiLoIdGenerator(4).build();
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteQuietly(pojoDB.getStoragePath().toFile());
+	}
+
+	@Test
+	public void nextId() {
+		final HiLoIdGenerator<Pojo> generator = HiLoIdGenerator.forCollection(pojoDB, "pojo", 4);
+
+		assertThat(generator.isLastIdRequired()).isTrue();
+		assertThat(generator.getNextId()).isEqualTo("1");
+		assertThat(generator.getNextId()).isEqualTo("2");
+		assertThat(generator.getNextId()).isEqualTo("3");
+	}
+
+	@Test
+	public void watermarkSurvivesRestart() {
+		final HiLoIdGenerator<Pojo> generator = HiLoIdGenerator.forCollection(pojoDB, "pojo", 4);
+		for (int i = 0; i < 6; i++) {
+			generator.getNextId();
+		}
+
+		final HiLoIdGenerator<Pojo> restarted = HiLoIdGenerator.forCollection(pojoDB, "pojo", 4);
+
+		assertThat(restarted.isLastIdRequired()).isFalse();
+		assertThat(restarted.getNextId()).isEqualTo("9");
+	}
+
+	@Test
+	public void setLastIdSkipsUsedIds() {
+		final HiLoIdGenerator<Pojo> generator = HiLoIdGenerator.forCollection(pojoDB, "pojo", 4);
+		generator.getNextId();
+
+		generator.setLastId("678");
+
+		assertThat(generator.getNextId()).isEqualTo("679");
+	}
+
+	@Test
+	public void repositoriesHaveOwnIdSpace() {
+		final DomainRepository<Pojo> repository = pojoDB.newDomainRepository("pojo", Pojo.class);
+
+		assertThat(repository.getIdGenerator()).isInstanceOf(HiLoIdGenerator.class);
+		assertThat(repository.save(new Pojo()).getId()).isEqualTo("1");
+		assertThat(repository.save(new Pojo()).getId()).isEqualTo("2");
+
+		final DomainRepository<Pojo> reopened = PojoDB.builder()
+				.withPath(pojoDB.getStoragePath())
+				.withHiLoIdGenerator(4)
+				.build()
+				.newDomainRepository("pojo", Pojo.class);
+
+		final Pojo pojo = reopened.save(new Pojo());
+		assertThat(pojo.getId()).isEqualTo("5");
+		assertThat(reopened.count()).isEqualTo(3);
+	}
+
+	@Test
+	public void concurrentIdsAreUnique() throws Exception {
+		final HiLoIdGenerator<Pojo> generator = HiLoIdGenerator.forCollection(pojoDB, "pojo", 4);
+		final Set<String> ids = ConcurrentHashMap.newKeySet();
+
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 100; i++) {
+						ids.add(generator.getNextId());
+					}
+				}));
+			}
+
+			for (Future<?> future : futures) {
+				future.get(1, TimeUnit.MINUTES);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertThat(ids).hasSize(800);
+	}
+}
@@ -16,9 +16,14 @@
 
 package global.simpleway.pojodb;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Set;
+
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
 
 import global.simpleway.pojodb.repository.DomainRepository;
 
@@ -42,5 +47,55 @@ public class ImmediateFlushStorageBasicCrudTest extends ABasicCrudTest {
 		return repository;
 	}
 
-	//all test are from super class
+	@Test
+	public void idsAreListedOnStart() {
+		final Pojo p1 = repository.save(create(1, "1"));
+		final Pojo p2 = repository.save(create(2, "2"));
+
+		final PojoDB pojoDB = PojoDB.builder().withPath(repository.getPojoDB().getStoragePath()).build();
+		final DomainRepository<Pojo> reopened = pojoDB.newDomainRepository("pojo", Pojo.class);
+		assertThat(reopened.count()).isEqualTo(2);
+
+		assertThat(reopened.getBackend().exists(p1.getId())).isTrue();
+
+		reopened.delete(p2);
+		assertThat(reopened.count()).isEqualTo(1);
+		assertThat(reopened.getBackend().exists(p2.getId())).isFalse();
+	}
+
+	@Test
+	public void count_updatedOnlyByChangeOfIds() {
+		final Pojo p1 = repository.save(create(1, "1"));
+		repository.save(p1);
+		repository.save(create(2, "2"));
+		assertThat(repository.count()).isEqualTo(2);
+
+		repository.deleteById(p1.getId());
+		assertThat(repository.count()).isEqualTo(1);
+	}
+
+	@Test
+	public void findAllIds_sortedLiveView() {
+		final Set<String> ids = repository.getBackend().findAllIds();
+		assertThat(ids).isEmpty();
+
+		final Pojo p1 = repository.save(create(1, "1"));
+		final Pojo p2 = repository.save(create(2, "2"));
+
+		assertThat(ids).containsExactly(p1.getId(), p2.getId());
+
+		repository.delete(p1);
+		assertThat(ids).containsExactly(p2.getId());
+	}
+
+	@Test
+	public void findAllIds_unsorted() {
+		final PojoDB pojoDB = PojoDB.builder().withPath(repository.getPojoDB().getStoragePath()).withUnsortedIds().build();
+		final DomainRepository<Pojo> unsorted = pojoDB.newDomainRepository("pojo", Pojo.class);
+
+		final Pojo p1 = unsorted.save(create(1, "1"));
+		final Pojo p2 = unsorted.save(create(2, "2"));
+
+		assertThat(unsorted.getBackend().findAllIds()).containsExactlyInAnyOrder(p1.getId(), p2.getId());
+	}
 }
@@ -19,6 +19,13 @@ package global.simpleway.pojodb;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
@@ -28,6 +35,7 @@ import org.junit.Test;
 
 import global.simpleway.pojodb.format.JsonFileFormatStrategy;
 import global.simpleway.pojodb.id.LongCounterIdGenerator;
+import global.simpleway.pojodb.lock.LockManager;
 import global.simpleway.pojodb.repository.DomainRepository;
 import global.simpleway.pojodb.repository.Repository;
 import global.simpleway.pojodb.repository.Tx;
@@ -54,6 +62,57 @@ public class ImmediateFlushStorageTxTest extends ATxTest {
 
 	//all tests are from superclass
 
+	@Test
+	public void concurrentReadersSeeCommittedStateWithoutLocks() throws Exception {
+		final Pojo pojo = repository().save(create(0, "0"));
+		final LockManager lockManager = repository().getPojoDB().getLockManager();
+
+		final int readers = 64;
+		final ExecutorService executor = Executors.newFixedThreadPool(readers);
+		try {
+			//readers only, no lock is acquired
+			final long acquired = lockManager.getAcquiredCount();
+			readConcurrently(executor, readers, pojo.getId(), 100);
+			assertThat(lockManager.getAcquiredCount()).isEqualTo(acquired);
+
+			//readers with writer, every read sees some committed state
+			final AtomicBoolean writing = new AtomicBoolean(true);
+			final Future<?> writer = executor.submit(() -> {
+				for (int i = 1; i <= 50; i++) {
+					pojo.setIntValue(i);
+					pojo.setStringValue("" + i);
+					repository().save(pojo);
+				}
+				writing.set(false);
+				return null;
+			});
+			while (writing.get()) {
+				readConcurrently(executor, readers - 1, pojo.getId(), 10);
+			}
+			writer.get();
+
+			assertThat(repository().findOne(pojo.getId()).getIntValue()).isEqualTo(50);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void readConcurrently(ExecutorService executor, int readers, String id, int reads) throws Exception {
+		final List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < readers; i++) {
+			futures.add(executor.submit(() -> {
+				for (int j = 0; j < reads; j++) {
+					final Pojo loaded = repository().findOne(id);
+					assertThat(loaded.getStringValue()).isEqualTo("" + loaded.getIntValue());
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get(30, TimeUnit.SECONDS);
+		}
+	}
+
 	@Test
 	public void commit_rollback_dueToError() throws IOException {
 		final PojoDB pojoDB = PojoDB.builder().withPathInTmpFolder().build();
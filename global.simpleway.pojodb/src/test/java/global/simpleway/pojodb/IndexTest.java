@@ -0,0 +1,224 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import global.simpleway.pojodb.index.HashIndex;
+import global.simpleway.pojodb.index.IndexManager;
+import global.simpleway.pojodb.repository.DomainRepository;
+import global.simpleway.pojodb.repository.SaveWriteCommand;
+import global.simpleway.pojodb.repository.Tx;
+import global.simpleway.pojodb.repository.TxContext;
+
+public class IndexTest {
+
+	private DomainRepository<Pojo> repository;
+
+	@Before
+	public void before() {
+		final PojoDB pojoDB = PojoDB.builder().withPathInTmpFolder().build();
+		repository = pojoDB.newDomainRepository("pojo", Pojo.class);
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteQuietly(repository.getPojoDB().getStoragePath().toFile());
+	}
+
+	private Pojo create(Integer intValue, String stringValue) {
+		final Pojo pojo = new Pojo();
+		pojo.setIntValue(intValue);
+		pojo.setStringValue(stringValue);
+		return pojo;
+	}
+
+	@Test
+	public void indexIsBuiltFromStoredItems() {
+		final Pojo p1 = repository.save(create(1, "a"));
+		final Pojo p2 = repository.save(create(2, "b"));
+		final Pojo p3 = repository.save(create(3, "a"));
+
+		repository.addIndex("string", Pojo::getStringValue);
+
+		assertThat(repository.findByIndex("string", "a")).containsExactlyInAnyOrder(p1, p3);
+		assertThat(repository.findByIndex("string", "b")).containsExactly(p2);
+		assertThat(repository.findByIndex("string", "c")).isEmpty();
+	}
+
+	@Test
+	public void indexFollowsCommits() {
+		repository.addIndex("string", Pojo::getStringValue);
+
+		final Pojo pojo = repository.save(create(1, "a"));
+		assertThat(repository.findByIndex("string", "a")).containsExactly(pojo);
+
+		pojo.setStringValue("b");
+		repository.save(pojo);
+		assertThat(repository.findByIndex("string", "a")).isEmpty();
+		assertThat(repository.findByIndex("string", "b")).containsExactly(pojo);
+
+		repository.delete(pojo);
+		assertThat(repository.findByIndex("string", "b")).isEmpty();
+	}
+
+	@Test
+	public void itemsWithNullKeyAreNotIndexed() {
+		repository.addIndex("string", Pojo::getStringValue);
+
+		repository.save(create(1, null));
+
+		assertThat(repository.getIndexManager().getIndex("string").size()).isZero();
+	}
+
+	@Test
+	public void changesAreVisibleAfterCommitOnly() throws IOException {
+		repository.addIndex("string", Pojo::getStringValue);
+
+		Tx tx = null;
+		try {
+			tx = repository.newTx();
+			repository.save(create(1, "a"));
+			repository.save(create(2, "a"));
+
+			assertThat(repository.findByIndex("string", "a")).isEmpty();
+
+			tx.commit();
+		} finally {
+			if (tx != null) {
+				tx.close();
+			}
+		}
+
+		assertThat(repository.findByIndex("string", "a")).hasSize(2);
+	}
+
+	@Test
+	public void discardedChangeIsNotPublished() {
+		final IndexManager<Pojo, String> indexManager = new IndexManager<>();
+		final HashIndex<Pojo, String, String> index = new HashIndex<>("string", Pojo::getStringValue);
+		indexManager.register(index);
+		indexManager.finishBuild(index);
+
+		indexManager.stageSave("1", "1", create(1, "a"));
+		indexManager.discard("1", "1");
+		indexManager.publish("1", "1", id -> null);
+
+		assertThat(index.find("a")).isEmpty();
+
+		indexManager.stageSave("2", "1", create(1, "a"));
+		indexManager.publish("2", "1", id -> null);
+
+		assertThat(index.find("a")).containsExactly("1");
+	}
+
+	@Test
+	public void overlappingTxsFinishedInReverseOrder() throws IOException {
+		repository.addIndex("string", Pojo::getStringValue);
+		final Pojo pojo = repository.save(create(1, "a"));
+
+		final SaveWriteCommand<Pojo, String> first = new SaveWriteCommand<>(copy(pojo, "b"), Pojo::getId);
+		final SaveWriteCommand<Pojo, String> second = new SaveWriteCommand<>(copy(pojo, "c"), Pojo::getId);
+		final TxContext firstContext = context("first");
+		final TxContext secondContext = context("second");
+
+		first.prepare(repository);
+		second.prepare(repository);
+		first.backup(repository, firstContext);
+		second.backup(repository, secondContext);
+		first.commit(repository, firstContext);
+		second.commit(repository, secondContext);
+
+		//the second one finished first, but the file holds its content
+		second.clearBackup(repository, secondContext);
+		first.clearBackup(repository, firstContext);
+
+		assertThat(repository.findOne(pojo.getId()).getStringValue()).isEqualTo("c");
+		assertThat(repository.findByIndex("string", "c")).extracting(Pojo::getId).containsExactly(pojo.getId());
+		assertThat(repository.findByIndex("string", "b")).isEmpty();
+		assertThat(repository.findByIndex("string", "a")).isEmpty();
+	}
+
+	private Pojo copy(Pojo pojo, String stringValue) {
+		final Pojo copy = create(pojo.getIntValue(), stringValue);
+		copy.setId(pojo.getId());
+		return copy;
+	}
+
+	private TxContext context(String opId) {
+		final TxContext context = new TxContext();
+		context.setOpId(opId);
+		return context;
+	}
+
+	@Test
+	public void rangeQueries() {
+		repository.addRangeIndex("int", Pojo::getIntValue);
+
+		final Pojo p1 = repository.save(create(10, "a"));
+		final Pojo p2 = repository.save(create(20, "b"));
+		final Pojo p3 = repository.save(create(30, "c"));
+		final Pojo p4 = repository.save(create(40, "d"));
+
+		assertThat(repository.findRange("int", 20, 40)).containsExactly(p2, p3);
+		assertThat(repository.findRange("int", null, 20)).containsExactly(p1);
+		assertThat(repository.findRange("int", 30, null)).containsExactly(p3, p4);
+
+		assertThat(repository.findTopN("int", 2)).containsExactly(p1, p2);
+		assertThat(repository.findTopN("int", 2, false)).containsExactly(p4, p3);
+
+		p1.setIntValue(50);
+		repository.save(p1);
+		assertThat(repository.findTopN("int", 1, false)).containsExactly(p1);
+
+		try (Stream<Pojo> items = repository.streamByIndex("int", true)) {
+			assertThat(items).containsExactly(p2, p3, p4, p1);
+		}
+	}
+
+	@Test
+	public void prefixQuery() {
+		repository.addRangeIndex("string", Pojo::getStringValue);
+
+		final Pojo p1 = repository.save(create(1, "apple"));
+		final Pojo p2 = repository.save(create(2, "apricot"));
+		repository.save(create(3, "banana"));
+
+		assertThat(repository.findByPrefix("string", "ap")).containsExactly(p1, p2);
+		assertThat(repository.findByIndex("string", "banana")).hasSize(1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rangeQueryOnHashIndex() {
+		repository.addIndex("string", Pojo::getStringValue);
+
+		repository.findRange("string", "a", "b");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownIndex() {
+		repository.findByIndex("unknown", "a");
+	}
+}
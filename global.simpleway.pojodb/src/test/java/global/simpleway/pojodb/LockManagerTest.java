@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.junit.After;
+import org.junit.Test;
+
+import global.simpleway.pojodb.lock.LockManager;
+
+public class LockManagerTest {
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	@After
+	public void after() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void readersOfSameItemDoNotBlockEachOther() throws Exception {
+		final LockManager lockManager = new LockManager();
+		final Path path = Paths.get("pojo", "1.json");
+
+		final LockManager.Handle lock = lockManager.readLock(path);
+		try {
+			final Future<?> reader = executor.submit(() -> lockManager.readLock(Paths.get("pojo", "1.json")).unlock());
+
+			reader.get(5, TimeUnit.SECONDS);
+		} finally {
+			lock.unlock();
+		}
+
+		assertThat(lockManager.getAcquiredCount()).isEqualTo(2);
+		assertThat(lockManager.getContendedCount()).isZero();
+	}
+
+	@Test
+	public void writerBlocksReadersAndContentionIsCounted() throws Exception {
+		final LockManager lockManager = new LockManager();
+		final Path path = Paths.get("pojo", "1.json");
+		final CountDownLatch started = new CountDownLatch(1);
+
+		final Future<?> reader;
+		final LockManager.Handle lock = lockManager.writeLock(path);
+		try {
+			reader = executor.submit(() -> {
+				started.countDown();
+				lockManager.readLock(path).unlock();
+			});
+
+			started.await();
+			Thread.sleep(50);
+			assertThat(reader.isDone()).isFalse();
+		} finally {
+			lock.unlock();
+		}
+
+		reader.get(5, TimeUnit.SECONDS);
+
+		assertThat(lockManager.getContendedCount()).isEqualTo(1);
+		assertThat(lockManager.getWaitNanos()).isPositive();
+	}
+
+	@Test
+	public void locksOfTouchedItemsAreSharedStripes() {
+		final LockManager lockManager = new LockManager(64);
+
+		//lock per touched item would give a new instance for every key
+		final Set<ReadWriteLock> locks = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (int i = 0; i < 100_000; i++) {
+			final Path path = Paths.get("pojo", i + ".json");
+			lockManager.writeLock(path).unlock();
+
+			locks.add(lockManager.getLock(path));
+		}
+
+		assertThat(locks.size()).isLessThanOrEqualTo(64);
+		//same key gets the same lock, even from another instance of the path
+		assertThat(lockManager.getLock(Paths.get("pojo", "1.json"))).isSameAs(lockManager.getLock(Paths.get("pojo", "1.json")));
+		assertThat(lockManager.getAcquiredCount()).isEqualTo(100_000);
+	}
+}
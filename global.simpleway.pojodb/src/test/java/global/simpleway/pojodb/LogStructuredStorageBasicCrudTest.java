@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.io.FileUtils;
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import global.simpleway.pojodb.id.LongCounterIdGenerator;
+import global.simpleway.pojodb.repository.DomainRepository;
+import global.simpleway.pojodb.storage.LogStructuredStorageBackend;
+
+public class LogStructuredStorageBasicCrudTest extends ABasicCrudTest {
+
+	private DomainRepository<Pojo> repository;
+
+	@Before
+	public void before() {
+		final PojoDB pojoDB = PojoDB.builder().withPathInTmpFolder().build();
+		repository = pojoDB.newLogStructuredDomainRepository("pojo", Pojo.class);
+	}
+
+	@After
+	public void after() throws IOException {
+		backend().close();
+		FileUtils.deleteQuietly(repository.getPojoDB().getStoragePath().toFile());
+	}
+
+	@Override
+	DomainRepository<Pojo> repository() {
+		return repository;
+	}
+
+	private LogStructuredStorageBackend<String> backend() {
+		return (LogStructuredStorageBackend<String>) repository.getBackend();
+	}
+
+	@Test
+	public void shouldLoadExistingItemsAfterReopen() throws IOException {
+		final Pojo p1 = create(1, "1");
+		final Pojo p2 = create(2, "2");
+		repository.save(p1);
+		repository.save(p2);
+
+		p1.setStringValue("updated");
+		repository.save(p1);
+		repository.delete(p2);
+
+		backend().close();
+
+		//reuse same temp directory
+		final PojoDB pojoDB = PojoDB.builder().withPath(repository.getPojoDB().getStoragePath()).build();
+		repository = pojoDB.newLogStructuredDomainRepository("pojo", Pojo.class);
+
+		Assertions.assertThat(repository.findAll()).containsExactly(p1);
+	}
+
+	@Test
+	public void closeOfPojoDBClosesBackend() throws IOException {
+		final Pojo p1 = repository.save(create(1, "1"));
+
+		repository.getPojoDB().close();
+
+		//segments are closed, so item could not be read
+		Assertions.assertThat(repository.findOne(p1.getId())).isNull();
+
+		final PojoDB pojoDB = PojoDB.builder().withPath(repository.getPojoDB().getStoragePath()).build();
+		repository = pojoDB.newLogStructuredDomainRepository("pojo", Pojo.class);
+
+		Assertions.assertThat(repository.findAll()).containsExactly(p1);
+	}
+
+	@Test
+	public void tornTailOfLastSegmentIsTruncated() throws IOException {
+		final Pojo p1 = repository.save(create(1, "1"));
+		backend().close();
+
+		final Path segment = repository.getPojoDB().getStoragePath().resolve("pojo").resolve("segment-0000000001.log");
+		final long size = Files.size(segment);
+		Files.write(segment, new byte[] { 0, 0, 1, 0, 1 }, StandardOpenOption.APPEND);
+
+		final PojoDB pojoDB = PojoDB.builder().withPath(repository.getPojoDB().getStoragePath()).build();
+		repository = pojoDB.newLogStructuredDomainRepository("pojo", Pojo.class);
+
+		Assertions.assertThat(repository.findAll()).containsExactly(p1);
+		assertThat(Files.size(segment)).isEqualTo(size);
+	}
+
+	@Test
+	public void corruptedSealedSegmentFailsOpen() throws IOException {
+		backend().close();
+
+		//tiny segments so every few records seals the active one
+		final PojoDB pojoDB = PojoDB.builder().withPath(repository.getPojoDB().getStoragePath()).build();
+		final LogStructuredStorageBackend<String> backend = new LogStructuredStorageBackend<>(pojoDB, "sealed", pojoDB.getDefaultFileFormat(), s -> s, 256, 0.5, 0);
+		repository = pojoDB.newDomainRepository(Pojo.class, new LongCounterIdGenerator<>(), backend);
+
+		for (int i = 0; i < 20; i++) {
+			repository.save(create(i, String.valueOf(i)));
+		}
+		backend.close();
+
+		final Path sealed = repository.getPojoDB().getStoragePath().resolve("sealed").resolve("segment-0000000001.log");
+		assertThat(sealed.resolveSibling("segment-0000000002.log")).exists();
+
+		//flip one bit in the middle of the first record
+		final byte[] content = Files.readAllBytes(sealed);
+		content[content.length / 4] ^= 1;
+		Files.write(sealed, content);
+
+		final PojoDB reopened = PojoDB.builder().withPath(repository.getPojoDB().getStoragePath()).build();
+		try {
+			reopened.newLogStructuredDomainRepository("sealed", Pojo.class);
+			Assert.fail("Corrupted sealed segment should fail the open");
+		} catch (IllegalArgumentException e) {
+			//ok
+		}
+
+		//valid records after the corrupted one are kept
+		assertThat(Files.readAllBytes(sealed)).isEqualTo(content);
+	}
+
+	@Test
+	public void compactionKeepsLiveItems() throws IOException {
+		backend().close();
+
+		//tiny segments so every few records seals the active one
+		final PojoDB pojoDB = PojoDB.builder().withPath(repository.getPojoDB().getStoragePath()).build();
+		final LogStructuredStorageBackend<String> backend = new LogStructuredStorageBackend<>(pojoDB, "compacted", pojoDB.getDefaultFileFormat(), s -> s, 256, 0.5, 0);
+		repository = pojoDB.newDomainRepository(Pojo.class, new LongCounterIdGenerator<>(), backend);
+
+		final Pojo p1 = create(1, "1");
+		final Pojo p2 = create(2, "2");
+		repository.save(p1);
+		repository.save(p2);
+
+		for (int i = 0; i < 20; i++) {
+			p1.setIntValue(i);
+			repository.save(p1);
+		}
+		repository.delete(p2);
+
+		backend.compact(0.5);
+
+		Assertions.assertThat(repository.findAll()).containsExactly(p1);
+
+		backend.close();
+
+		final PojoDB reopened = PojoDB.builder().withPath(repository.getPojoDB().getStoragePath()).build();
+		repository = reopened.newLogStructuredDomainRepository("compacted", Pojo.class);
+
+		Assertions.assertThat(repository.findAll()).containsExactly(p1);
+		assertThat(repository.findOne(p2.getId())).isNull();
+	}
+}
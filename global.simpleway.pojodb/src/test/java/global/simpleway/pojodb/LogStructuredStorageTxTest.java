@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb;
+
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+
+import global.simpleway.pojodb.repository.DomainRepository;
+import global.simpleway.pojodb.repository.Repository;
+import global.simpleway.pojodb.storage.LogStructuredStorageBackend;
+
+public class LogStructuredStorageTxTest extends ATxTest {
+
+	private DomainRepository<Pojo> repository;
+
+	@Before
+	public void before() {
+		final PojoDB pojoDB = PojoDB.builder().withPathInTmpFolder().build();
+		repository = pojoDB.newLogStructuredDomainRepository("pojo", Pojo.class);
+	}
+
+	@After
+	public void after() throws IOException {
+		((LogStructuredStorageBackend<String>) repository.getBackend()).close();
+		FileUtils.deleteQuietly(repository.getPojoDB().getStoragePath().toFile());
+	}
+
+	@Override
+	protected Repository<Pojo, String> repository() {
+		return repository;
+	}
+
+	//all tests are from superclass
+}
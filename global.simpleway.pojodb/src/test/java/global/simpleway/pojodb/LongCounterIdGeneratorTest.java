@@ -18,6 +18,8 @@ package global.simpleway.pojodb;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.Arrays;
+
 import org.junit.Test;
 
 import global.simpleway.pojodb.id.LongCounterIdGenerator;
@@ -65,4 +67,22 @@ public class LongCounterIdGeneratorTest {
 		assertThat(generator.getNextId()).isEqualTo("" + Long.MIN_VALUE);
 		assertThat(generator.getNextId()).isEqualTo("" + (Long.MIN_VALUE + 1));
 	}
+
+	@Test
+	public void setLastIds_comparedAsNumbers() {
+		final LongCounterIdGenerator<String> generator = new LongCounterIdGenerator<>();
+
+		generator.setLastIds(Arrays.asList("9", "10", "2"));
+
+		assertThat(generator.getNextId()).isEqualTo("11");
+	}
+
+	@Test
+	public void setLastIds_notNumericSkipped() {
+		final LongCounterIdGenerator<String> generator = new LongCounterIdGenerator<>();
+
+		generator.setLastIds(Arrays.asList("a", "5", "b"));
+
+		assertThat(generator.getNextId()).isEqualTo("6");
+	}
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import global.simpleway.pojodb.repository.DomainRepository;
+
+public class PersistentIndexTest {
+
+	private static final int ITEMS = 20;
+
+	private final AtomicInteger extracted = new AtomicInteger();
+
+	private Path storagePath;
+
+	private DomainRepository<Pojo> repository;
+
+	private final List<Pojo> pojos = new ArrayList<>();
+
+	@Before
+	public void before() {
+		final PojoDB pojoDB = PojoDB.builder().withPathInTmpFolder().withPersistentIndexes().build();
+		storagePath = pojoDB.getStoragePath();
+		repository = pojoDB.newDomainRepository("pojo", Pojo.class);
+
+		for (int i = 0; i < ITEMS; i++) {
+			pojos.add(repository.save(create(i, i % 2 == 0 ? "even" : "odd")));
+		}
+
+		addIndex();
+		repository.checkpointIndexes();
+
+		//changes after the checkpoint
+		pojos.get(0).setStringValue("changed");
+		repository.save(pojos.get(0));
+		repository.delete(pojos.get(1));
+		pojos.add(repository.save(create(ITEMS, "new")));
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteQuietly(storagePath.toFile());
+	}
+
+	private Pojo create(Integer intValue, String stringValue) {
+		final Pojo pojo = new Pojo();
+		pojo.setIntValue(intValue);
+		pojo.setStringValue(stringValue);
+		return pojo;
+	}
+
+	private void addIndex() {
+		repository.addIndex("string", pojo -> {
+			extracted.incrementAndGet();
+			return pojo.getStringValue();
+		});
+	}
+
+	private void reopen() {
+		final PojoDB pojoDB = PojoDB.builder().withPath(storagePath).withPersistentIndexes().build();
+		repository = pojoDB.newDomainRepository("pojo", Pojo.class);
+
+		extracted.set(0);
+		addIndex();
+	}
+
+	private void assertIndex() {
+		assertThat(repository.findByIndex("string", "changed")).containsExactly(pojos.get(0));
+		assertThat(repository.findByIndex("string", "new")).containsExactly(pojos.get(ITEMS));
+		assertThat(repository.findByIndex("string", "even")).hasSize(ITEMS / 2 - 1);
+		assertThat(repository.findByIndex("string", "odd")).hasSize(ITEMS / 2 - 1).doesNotContain(pojos.get(1));
+	}
+
+	@Test
+	public void restoredFromCheckpointWithReplayedChanges() {
+		reopen();
+
+		assertIndex();
+		//only items changed after the checkpoint are read
+		assertThat(extracted.get()).isEqualTo(2);
+	}
+
+	@Test
+	public void removedIndexReleasesRedoLog() {
+		final Path indexPath = storagePath.resolve("_index").resolve(Pojo.class.getName()).resolve("string.idx");
+		final Path retainPath = storagePath.resolve("_redo.log").resolve("retain-index-" + Pojo.class.getName() + ".string.pin");
+		assertThat(indexPath).exists();
+		assertThat(retainPath).exists();
+
+		assertThat(repository.removeIndex("string")).isTrue();
+
+		assertThat(indexPath).doesNotExist();
+		assertThat(retainPath).doesNotExist();
+	}
+
+	@Test
+	public void removedIndexWithoutCheckpoint() {
+		repository.addIndex("int", Pojo::getIntValue);
+
+		assertThat(repository.removeIndex("int")).isTrue();
+
+		assertThat(storagePath.resolve("_index").resolve(Pojo.class.getName()).resolve("int.idx")).doesNotExist();
+	}
+
+	@Test
+	public void rebuiltWithoutCheckpoint() throws IOException {
+		FileUtils.deleteDirectory(storagePath.resolve("_index").toFile());
+
+		reopen();
+
+		assertIndex();
+		assertThat(extracted.get()).isEqualTo(ITEMS);
+	}
+
+	@Test
+	public void rebuiltWithCorruptedCheckpoint() throws IOException {
+		final Path indexPath = storagePath.resolve("_index").resolve(Pojo.class.getName()).resolve("string.idx");
+		assertThat(indexPath).exists();
+		Files.write(indexPath, new byte[] { 1, 2, 3 });
+
+		reopen();
+
+		assertIndex();
+		assertThat(extracted.get()).isEqualTo(ITEMS);
+	}
+
+	@Test
+	public void rebuiltWhenRedoLogIsMissing() throws IOException {
+		FileUtils.deleteDirectory(storagePath.resolve("_redo.log").toFile());
+
+		reopen();
+
+		assertIndex();
+		assertThat(extracted.get()).isEqualTo(ITEMS);
+	}
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import global.simpleway.pojodb.format.JsonFileFormatStrategy;
+import global.simpleway.pojodb.format.SmileFileFormatStrategy;
+import global.simpleway.pojodb.id.LongCounterIdGenerator;
+import global.simpleway.pojodb.redoLog.RedoLogPosition;
+import global.simpleway.pojodb.redoLog.RedoLogService;
+import global.simpleway.pojodb.repository.DeleteWriteCommand;
+import global.simpleway.pojodb.repository.DomainRepository;
+import global.simpleway.pojodb.repository.IWriteCommand;
+import global.simpleway.pojodb.repository.SaveWriteCommand;
+import global.simpleway.pojodb.storage.Durability;
+
+public class RedoLogServiceTest {
+
+	private PojoDB pojoDB;
+
+	private RedoLogService redoLog;
+
+	@Before
+	public void before() {
+		pojoDB = PojoDB.builder().withPathInTmpFolder().build();
+		redoLog = newRedoLog();
+	}
+
+	@After
+	public void after() throws IOException {
+		redoLog.close();
+		FileUtils.deleteQuietly(pojoDB.getStoragePath().toFile());
+	}
+
+	private RedoLogService newRedoLog() {
+		//tiny segments, so checkpoints happen often
+		return new RedoLogService(pojoDB, new JsonFileFormatStrategy(), new LongCounterIdGenerator<>(), 512);
+	}
+
+	private RedoLogService reopen() throws IOException {
+		redoLog.close();
+		redoLog = newRedoLog();
+		return redoLog;
+	}
+
+	private Path redoLogPath() {
+		return pojoDB.getStoragePath().resolve("_redo.log");
+	}
+
+	@Test
+	public void endedTxsAreNotIncomplete() throws IOException {
+		final String opId = redoLog.txBegin(new DeleteWriteCommand<>("1", Pojo.class));
+		redoLog.txEnd(opId);
+
+		assertThat(redoLog.getAllIncompleteTxs()).isEmpty();
+		assertThat(reopen().getAllIncompleteTxs()).isEmpty();
+	}
+
+	@Test
+	public void incompleteTxsSurviveRestartInOrder() throws IOException {
+		final String op1 = redoLog.txBegin(new DeleteWriteCommand<>("1", Pojo.class));
+		final String op2 = redoLog.txBegin(new DeleteWriteCommand<>("2", Pojo.class));
+		final String op3 = redoLog.txBegin(new DeleteWriteCommand<>("3", Pojo.class));
+		redoLog.txEnd(op2);
+
+		final Map<String, IWriteCommand> incomplete = reopen().getAllIncompleteTxs();
+
+		assertThat(incomplete.keySet()).containsExactly(op1, op3);
+		assertThat(((DeleteWriteCommand<?, ?>) incomplete.get(op1)).getId()).isEqualTo("1");
+
+		//op ids of incomplete txs are not reused
+		assertThat(redoLog.txBegin(new DeleteWriteCommand<>("4", Pojo.class))).isNotIn(op1, op3);
+	}
+
+	@Test
+	public void checkpointKeepsIncompleteTxsAndRecyclesSegments() throws IOException {
+		final String incompleteOpId = redoLog.txBegin(new DeleteWriteCommand<>("incomplete", Pojo.class));
+
+		for (int i = 0; i < 100; i++) {
+			redoLog.txEnd(redoLog.txBegin(new DeleteWriteCommand<>("" + i, Pojo.class)));
+		}
+
+		try (Stream<Path> files = Files.list(redoLogPath())) {
+			assertThat(files.filter(p -> p.getFileName().toString().startsWith("wal-")).count()).isOne();
+		}
+
+		assertThat(reopen().getAllIncompleteTxs().keySet()).containsExactly(incompleteOpId);
+	}
+
+	@Test
+	public void opIdsOfCheckpointedTxsAreNotReusedAfterRestart() throws IOException {
+		final String pending = redoLog.txBegin(new DeleteWriteCommand<>("1", Pojo.class));
+
+		//segment with the begin is recycled, only checkpoint knows the tx
+		redoLog.checkpoint();
+		reopen();
+
+		final String next = redoLog.txBegin(new DeleteWriteCommand<>("2", Pojo.class));
+
+		assertThat(next).isNotEqualTo(pending);
+		assertThat(redoLog.getAllIncompleteTxs().keySet()).containsExactly(pending, next);
+	}
+
+	@Test
+	public void tornTailIsIgnored() throws IOException {
+		final String opId = redoLog.txBegin(new DeleteWriteCommand<>("1", Pojo.class));
+		redoLog.close();
+
+		try (Stream<Path> files = Files.list(redoLogPath())) {
+			final Path segment = files.filter(p -> p.getFileName().toString().startsWith("wal-")).findFirst().get();
+			Files.write(segment, "garbage".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		}
+
+		redoLog = newRedoLog();
+		assertThat(redoLog.getAllIncompleteTxs().keySet()).containsExactly(opId);
+	}
+
+	@Test
+	public void perOperationFilesOfPreviousVersionAreReplayed() throws IOException {
+		Files.createDirectories(redoLogPath());
+		Files.write(redoLogPath().resolve("7.json"), new JsonFileFormatStrategy().toString(new DeleteWriteCommand<>("1", Pojo.class)).getBytes(StandardCharsets.UTF_8));
+
+		assertThat(redoLog.getAllIncompleteTxs().keySet()).containsExactly("7");
+
+		redoLog.txEnd("7");
+
+		assertThat(Files.exists(redoLogPath().resolve("7.json"))).isFalse();
+		assertThat(reopen().getAllIncompleteTxs()).isEmpty();
+	}
+
+	@Test
+	public void perOperationFilesAreReadInDataFileFormat() throws IOException {
+		redoLog.close();
+		redoLog = new RedoLogService(pojoDB, new SmileFileFormatStrategy(), new JsonFileFormatStrategy(), new LongCounterIdGenerator<>(), 512,
+				Durability.OS_BUFFERED, 0);
+
+		Files.createDirectories(redoLogPath());
+		Files.write(redoLogPath().resolve("7.json"), new JsonFileFormatStrategy().toString(new DeleteWriteCommand<>("1", Pojo.class)).getBytes(StandardCharsets.UTF_8));
+
+		final String opId = redoLog.txBegin(new DeleteWriteCommand<>("2", Pojo.class));
+
+		assertThat(redoLog.getAllIncompleteTxs().keySet()).containsExactly("7", opId);
+	}
+
+	@Test
+	public void failedFlushOfBeginIsNotReplayed() throws IOException {
+		redoLog.close();
+
+		final AtomicBoolean failing = new AtomicBoolean(true);
+		redoLog = new RedoLogService(pojoDB, new JsonFileFormatStrategy(), new JsonFileFormatStrategy(), new LongCounterIdGenerator<>(), 512, Durability.FSYNC, 0) {
+			@Override
+			protected void force() throws IOException {
+				if (failing.get()) throw new IOException("Simulated failure of the disk");
+
+				super.force();
+			}
+		};
+
+		try {
+			redoLog.txBegin(new DeleteWriteCommand<>("1", Pojo.class));
+			Assert.fail("Should throw IOException as begin is not durable");
+		} catch (IOException e) {
+			assertThat(redoLog.getAllIncompleteTxs()).isEmpty();
+		}
+
+		failing.set(false);
+		final String opId = redoLog.txBegin(new DeleteWriteCommand<>("2", Pojo.class));
+
+		//aborted tx is not carried in checkpoint and it's ended on the disk
+		redoLog.checkpoint();
+		assertThat(reopen().getAllIncompleteTxs().keySet()).containsExactly(opId);
+	}
+
+	@Test
+	public void touchedIdsAreStoredOnlyForPersistentIndexes() throws IOException {
+		final RedoLogPosition position = redoLog.getPosition();
+		redoLog.txEnd(redoLog.txBegin(new DeleteWriteCommand<>("1", Pojo.class)), new DeleteWriteCommand<>("1", Pojo.class));
+
+		final List<Object> touched = new ArrayList<>();
+		assertThat(redoLog.forEachTouchedIdSince(position, (itemClass, id) -> touched.add(id))).isTrue();
+		assertThat(touched).isEmpty();
+
+		final PojoDB persistent = PojoDB.builder().withPathInTmpFolder().withPersistentIndexes().build();
+		final RedoLogService persistentRedoLog = persistent.getRedoLogService();
+		try {
+			final RedoLogPosition persistentPosition = persistentRedoLog.getPosition();
+			final DeleteWriteCommand<Pojo, String> command = new DeleteWriteCommand<>("2", Pojo.class);
+			persistentRedoLog.txEnd(persistentRedoLog.txBegin(command), command);
+
+			assertThat(persistentRedoLog.forEachTouchedIdSince(persistentPosition, (itemClass, id) -> touched.add(id))).isTrue();
+			assertThat(touched).containsExactly("2");
+		} finally {
+			persistentRedoLog.close();
+			FileUtils.deleteQuietly(persistent.getStoragePath().toFile());
+		}
+	}
+
+	@Test
+	public void notSerializableIdFailsBeginOfTx() throws IOException {
+		final PojoDB persistent = PojoDB.builder().withPathInTmpFolder().withPersistentIndexes().build();
+		final RedoLogService persistentRedoLog = persistent.getRedoLogService();
+		try {
+			persistentRedoLog.txBegin(new DeleteWriteCommand<>(new NotSerializableId("1"), Pojo.class));
+			Assert.fail("Should throw IOException as id is not serializable");
+		} catch (IOException e) {
+			assertThat(persistentRedoLog.getAllIncompleteTxs()).isEmpty();
+		} finally {
+			persistentRedoLog.close();
+			FileUtils.deleteQuietly(persistent.getStoragePath().toFile());
+		}
+	}
+
+	public static class NotSerializableId {
+
+		private final String value;
+
+		public NotSerializableId(String value) {
+			this.value = value;
+		}
+
+		public String getValue() {
+			return value;
+		}
+	}
+
+	@Test
+	public void incompleteTxIsRepaired() throws IOException {
+		final Pojo pojo = new Pojo();
+		pojo.setIntValue(1);
+		pojo.setStringValue("1");
+
+		final DomainRepository<Pojo> repository = pojoDB.newDomainRepository("pojo", Pojo.class);
+		repository.save(pojo);
+
+		//crash after begin of delete
+		pojoDB.getRedoLogService().txBegin(new DeleteWriteCommand<>(pojo.getId(), Pojo.class));
+
+		pojoDB.checkForConsistencyAndRepair();
+
+		assertThat(repository.findOne(pojo.getId())).isNull();
+		assertThat(pojoDB.getRedoLogService().getAllIncompleteTxs()).isEmpty();
+	}
+
+	@Test
+	public void incompleteSaveIsRepairedFromLoggedBytes() throws IOException {
+		final DomainRepository<Pojo> repository = pojoDB.newDomainRepository("pojo", Pojo.class);
+
+		final Pojo pojo = new Pojo();
+		pojo.setId("1");
+		pojo.setIntValue(1);
+		pojo.setStringValue("1");
+
+		final SaveWriteCommand<Pojo, String> command = new SaveWriteCommand<>(pojo, Pojo::getId);
+		command.prepare(repository);
+
+		//crash after begin of save
+		pojoDB.getRedoLogService().txBegin(command);
+
+		final IWriteCommand replayed = pojoDB.getRedoLogService().getAllIncompleteTxs().values().iterator().next();
+		assertThat(replayed).isInstanceOf(SaveWriteCommand.class);
+		assertThat(((SaveWriteCommand<?, ?>) replayed).getData()).isEqualTo(command.getData());
+
+		pojoDB.checkForConsistencyAndRepair();
+
+		assertThat(repository.findOne("1")).isEqualTo(pojo);
+		assertThat(pojoDB.getRedoLogService().getAllIncompleteTxs()).isEmpty();
+	}
+}
@@ -18,8 +18,14 @@ package global.simpleway.pojodb;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -45,4 +51,29 @@ public class RepositoryTest {
 		assertThat(repository.getTypeClass()).isEqualTo(Pojo.class);
 
 	}
+
+	@Test
+	public void parallelReadsAreRejectedAfterClose() throws IOException {
+		final List<Pojo> pojos = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			final Pojo pojo = new Pojo();
+			pojo.setIntValue(i);
+			pojos.add(repository.save(pojo));
+		}
+		final List<String> ids = pojos.stream().map(Pojo::getId).collect(Collectors.toList());
+
+		//pool of the previous parallelism is replaced
+		for (int parallelism = 2; parallelism <= 4; parallelism++) {
+			assertThat(repository.findAllById(ids, parallelism, id -> Assert.fail("Missing " + id))).containsExactlyElementsOf(pojos);
+		}
+
+		repository.getPojoDB().close();
+
+		try {
+			repository.findAllById(ids, 2, id -> Assert.fail("Missing " + id));
+			Assert.fail("Closed repository should not read in parallel");
+		} catch (IllegalStateException e) {
+			//ok
+		}
+	}
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import global.simpleway.pojodb.repository.DeleteWriteCommand;
+import global.simpleway.pojodb.repository.DomainRepository;
+import global.simpleway.pojodb.storage.DirectoryLayoutMigration;
+import global.simpleway.pojodb.storage.HashedDirectoryLayout;
+import global.simpleway.pojodb.storage.PrefixDirectoryLayout;
+
+public class ShardedImmediateFlushStorageBasicCrudTest extends ABasicCrudTest {
+
+	private DomainRepository<Pojo> repository;
+
+	@Before
+	public void before() {
+		final PojoDB pojoDB = PojoDB.builder().withPathInTmpFolder().withDirectoryLayout(new HashedDirectoryLayout(16)).build();
+		repository = pojoDB.newDomainRepository("pojo", Pojo.class);
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteQuietly(repository.getPojoDB().getStoragePath().toFile());
+	}
+
+	@Override
+	DomainRepository<Pojo> repository() {
+		return repository;
+	}
+
+	@Test
+	public void filesAreInSubFolders() {
+		final Pojo pojo = repository.save(create(1, "1"));
+
+		final Path collectionPath = repository.getPojoDB().getStoragePath().resolve("pojo");
+		assertThat(collectionPath.resolve(pojo.getId() + ".json")).doesNotExist();
+		assertThat(new HashedDirectoryLayout(16).getDirectory(collectionPath, pojo.getId()).resolve(pojo.getId() + ".json")).exists();
+	}
+
+	@Test
+	public void migrate() throws IOException {
+		final Path storagePath = repository.getPojoDB().getStoragePath();
+		final PojoDB flatDB = PojoDB.builder().withPath(storagePath).build();
+		final DomainRepository<Pojo> flat = flatDB.newDomainRepository("flat", Pojo.class);
+
+		final List<Pojo> pojos = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			pojos.add(flat.save(create(i, String.valueOf(i))));
+		}
+
+		final PojoDB prefixDB = PojoDB.builder().withPath(storagePath).withDirectoryLayout(new PrefixDirectoryLayout(1)).build();
+		assertThat(DirectoryLayoutMigration.migrate(prefixDB, "flat")).isEqualTo(20);
+		//nothing to move again
+		assertThat(DirectoryLayoutMigration.migrate(prefixDB, "flat")).isZero();
+		assertThat(Files.list(storagePath.resolve("flat")).allMatch(Files::isDirectory)).isTrue();
+
+		final DomainRepository<Pojo> prefixed = prefixDB.newDomainRepository("flat", Pojo.class);
+		assertThat(prefixed.count()).isEqualTo(20);
+		assertThat(prefixed.findAll()).containsExactlyInAnyOrderElementsOf(pojos);
+
+		//and back
+		final PojoDB backDB = PojoDB.builder().withPath(storagePath).build();
+		assertThat(DirectoryLayoutMigration.migrate(backDB, "flat")).isEqualTo(20);
+		assertThat(Files.list(storagePath.resolve("flat")).noneMatch(Files::isDirectory)).isTrue();
+		assertThat(backDB.newDomainRepository("flat", Pojo.class).findAll()).containsExactlyInAnyOrderElementsOf(pojos);
+	}
+
+	@Test
+	public void notMigratedCollectionFailsOpen() {
+		final Path storagePath = repository.getPojoDB().getStoragePath();
+		final PojoDB flatDB = PojoDB.builder().withPath(storagePath).build();
+		flatDB.newDomainRepository("flat", Pojo.class).save(create(1, "1"));
+
+		final PojoDB hashedDB = PojoDB.builder().withPath(storagePath).withDirectoryLayout(new HashedDirectoryLayout(16)).build();
+		try {
+			hashedDB.newDomainRepository("flat", Pojo.class);
+			Assert.fail("Files of flat layout should not be ignored");
+		} catch (IllegalStateException e) {
+			assertThat(e.getMessage()).contains(DirectoryLayoutMigration.class.getSimpleName());
+		}
+	}
+
+	@Test
+	public void migrationRefusedWithIncompleteTxs() throws IOException {
+		final Path storagePath = repository.getPojoDB().getStoragePath();
+		final PojoDB flatDB = PojoDB.builder().withPath(storagePath).build();
+		flatDB.newDomainRepository("flat", Pojo.class).save(create(1, "1"));
+		flatDB.getRedoLogService().txBegin(new DeleteWriteCommand<>("1", Pojo.class));
+
+		final PojoDB prefixDB = PojoDB.builder().withPath(storagePath).withDirectoryLayout(new PrefixDirectoryLayout(1)).build();
+		try {
+			DirectoryLayoutMigration.migrate(prefixDB, "flat");
+			Assert.fail("Migration should be refused with incomplete tx");
+		} catch (IllegalStateException e) {
+			//ok
+		}
+
+		assertThat(Files.list(storagePath.resolve("flat")).noneMatch(Files::isDirectory)).isTrue();
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 Simpleway Holding a.s.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package global.simpleway.pojodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import global.simpleway.pojodb.repository.DomainRepository;
+import global.simpleway.pojodb.repository.TxContext;
+
+public class SmileFileFormatBasicCrudTest extends ABasicCrudTest {
+
+	private DomainRepository<Pojo> repository;
+
+	@Before
+	public void before() {
+		final PojoDB pojoDB = PojoDB.builder().withPathInTmpFolder().withSmileFileFormat().build();
+		repository = pojoDB.newDomainRepository("pojo", Pojo.class);
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteQuietly(repository.getPojoDB().getStoragePath().toFile());
+	}
+
+	@Override
+	DomainRepository<Pojo> repository() {
+		return repository;
+	}
+
+	@Test
+	public void storedInBinaryFiles() {
+		final Pojo pojo = repository.save(create(1, "1"));
+
+		assertThat(repository.getPojoDB().getStoragePath().resolve("pojo").resolve(pojo.getId() + ".smile")).exists();
+
+		final PojoDB pojoDB = PojoDB.builder().withPath(repository.getPojoDB().getStoragePath()).withSmileFileFormat().build();
+		assertThat(pojoDB.newDomainRepository("pojo", Pojo.class).findOne(pojo.getId())).isEqualTo(pojo);
+	}
+
+	@Test
+	public void savedFromStringForm() throws IOException {
+		final Pojo pojo = create(1, "1");
+		pojo.setId("1");
+
+		repository.getBackend().save("1", repository.getBackend().getFileFormat().toString(pojo), new TxContext());
+
+		assertThat(repository.findOne("1")).isEqualTo(pojo);
+	}
+}